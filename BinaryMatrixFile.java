@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary format for data tables, designed to be memory-mapped and used in place as the
+ * storage of a DenseMatrix. A file is a 32-byte header followed by the entries as little-endian
+ * values. The header holds, in order: the magic number MAGIC, the format VERSION, the data type
+ * (FLOAT64 or FLOAT32), the layout (COLUMN_MAJOR or ROW_MAJOR), the number of rows as a long and
+ * the number of columns as a long. As in the text format, each row is a data point and each
+ * column a variable. A FLOAT32 file is mapped as a single precision DenseMatrix.
+ */
+class BinaryMatrixFile {
+
+	static final int MAGIC = 0x4D414350; //"PCAM" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int FLOAT64 = 0;
+	static final int FLOAT32 = 1;
+	static final int COLUMN_MAJOR = 0;
+	static final int ROW_MAJOR = 1;
+
+	/**
+	 * Header fields of a binary matrix file.
+	 */
+	static class Header {
+		int dtype;
+		int layout;
+		int rows;
+		int cols;
+
+		/**
+		 * Returns the number of bytes that store one entry.
+		 */
+		int entryBytes() {
+			return dtype == FLOAT32 ? Float.BYTES : Double.BYTES;
+		}
+	}
+
+	/**
+	 * Returns true if filename starts with the binary format's magic number.
+	 */
+	static boolean isBinary(String filename) throws IOException {
+		try(DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			return Integer.reverseBytes(in.readInt()) == MAGIC;
+		} catch(EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads and validates the header of the file open on channel.
+	 * @throws IOException	if the file is not a binary matrix file this version can read
+	 */
+	static Header readHeader(FileChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		while(buf.hasRemaining() && channel.read(buf, buf.position()) > 0) { }
+		if(buf.hasRemaining() || buf.getInt(0) != MAGIC) {
+			throw new IOException("Not a binary matrix file.");
+		}
+		if(buf.getInt(4) != VERSION) {
+			throw new IOException("Unsupported binary matrix version " + buf.getInt(4));
+		}
+		Header header = new Header();
+		header.dtype = buf.getInt(8);
+		header.layout = buf.getInt(12);
+		long rows = buf.getLong(16);
+		long cols = buf.getLong(24);
+		if((header.dtype != FLOAT64 && header.dtype != FLOAT32)
+				|| (header.layout != COLUMN_MAJOR && header.layout != ROW_MAJOR)
+				|| rows < 0 || cols < 0 || rows > Integer.MAX_VALUE || cols > Integer.MAX_VALUE) {
+			throw new IOException("Malformed binary matrix header.");
+		}
+		header.rows = (int) rows;
+		header.cols = (int) cols;
+		//Divided rather than multiplied out, since rows * cols * entryBytes can overflow a long
+		long entries = (channel.size() - HEADER_BYTES) / header.entryBytes();
+		if(cols > 0 && entries / cols < rows) {
+			throw new IOException("Binary matrix file is truncated.");
+		}
+		return header;
+	}
+
+	/**
+	 * Builds the header bytes for a file with the given shape, data type and layout.
+	 */
+	static ByteBuffer header(int rows, int cols, int dtype, int layout) {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(dtype).putInt(layout);
+		buf.putLong(rows).putLong(cols);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Memory-maps filename and returns its contents as a DenseMatrix backed directly by the
+	 * mapping; nothing is copied onto the heap. The mapping is private, so the matrix can be
+	 * modified (for instance by Data.center) without changing the file. If the file cannot be
+	 * opened for writing it is mapped read-only instead. FLOAT32 files give a single precision
+	 * matrix.
+	 * @param filename	the name of the binary file
+	 * @return			the data table; each row is a data point
+	 * @throws IOException	if the file cannot be read or is not a binary matrix file
+	 */
+	static DenseMatrix map(String filename) throws IOException {
+		FileChannel.MapMode mode = FileChannel.MapMode.PRIVATE;
+		FileChannel channel;
+		try {
+			//Private mappings need a writable channel, although the file is never written
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		} catch(IOException | SecurityException e) {
+			mode = FileChannel.MapMode.READ_ONLY;
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		}
+		try {
+			Header header = readHeader(channel);
+			if(header.dtype == FLOAT32) {
+				return mapFloats(channel, mode, header);
+			}
+			long size = (long) header.rows * header.cols;
+			DoubleBuffer[] chunks = new DoubleBuffer[(int) ((size + DenseMatrix.CHUNK_MASK)
+					>>> DenseMatrix.CHUNK_SHIFT)];
+			for(int c = 0; c < chunks.length; c++) {
+				long start = (long) c << DenseMatrix.CHUNK_SHIFT;
+				long length = Math.min(DenseMatrix.CHUNK_SIZE, size - start);
+				chunks[c] = channel.map(mode,
+						HEADER_BYTES + start * Double.BYTES, length * Double.BYTES)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+			if(header.layout == ROW_MAJOR) {
+				return DenseMatrix.wrap(chunks, header.rows, header.cols, header.cols, 1);
+			}
+			return DenseMatrix.wrap(chunks, header.rows, header.cols, 1, header.rows);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps the entries of a FLOAT32 file as a single precision DenseMatrix.
+	 */
+	private static DenseMatrix mapFloats(FileChannel channel, FileChannel.MapMode mode,
+			Header header) throws IOException {
+		long size = (long) header.rows * header.cols;
+		FloatBuffer[] chunks = new FloatBuffer[(int) ((size + DenseMatrix.CHUNK_MASK)
+				>>> DenseMatrix.CHUNK_SHIFT)];
+		for(int c = 0; c < chunks.length; c++) {
+			long start = (long) c << DenseMatrix.CHUNK_SHIFT;
+			long length = Math.min(DenseMatrix.CHUNK_SIZE, size - start);
+			chunks[c] = channel.map(mode, HEADER_BYTES + start * Float.BYTES, length * Float.BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		}
+		if(header.layout == ROW_MAJOR) {
+			return DenseMatrix.wrap(chunks, header.rows, header.cols, header.cols, 1);
+		}
+		return DenseMatrix.wrap(chunks, header.rows, header.cols, 1, header.rows);
+	}
+
+	/**
+	 * Writes matrix to filename in column-major layout, as FLOAT32 if the matrix is stored in
+	 * single precision and as FLOAT64 otherwise.
+	 * @param matrix	the data table; each row is a data point
+	 * @param filename	the name of the file to write
+	 * @throws IOException	if an error occurs while writing
+	 */
+	static void write(DenseMatrix matrix, String filename) throws IOException {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.SAVE);
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			boolean single = matrix.isSinglePrecision();
+			writeFully(channel, header(matrix.rows, matrix.cols, single ? FLOAT32 : FLOAT64,
+					COLUMN_MAJOR), 0);
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			long position = HEADER_BYTES;
+			for(int i = 0; i < matrix.cols; i++) {
+				for(int j = 0; j < matrix.rows; j++) {
+					if(!buf.hasRemaining()) {
+						buf.flip();
+						position += writeFully(channel, buf, position);
+						buf.clear();
+					}
+					if(single) {
+						buf.putFloat((float) matrix.get(j, i));
+					} else {
+						buf.putDouble(matrix.get(j, i));
+					}
+				}
+			}
+			buf.flip();
+			writeFully(channel, buf, position);
+		}
+		Metrics.stop(timer, 0,
+				HEADER_BYTES + (long) matrix.entryBytes() * matrix.rows * matrix.cols);
+	}
+
+	/**
+	 * Converts a text data file, in the format read by PCA, to a column-major binary file. The
+	 * text file is read a block of rows at a time, so it never has to fit in memory.
+	 * @param textFilename		the name of the text data file
+	 * @param binaryFilename	the name of the binary file to write
+	 * @param chunkRows			number of rows held in memory at a time
+	 * @param single			true to write FLOAT32 entries, rounding each parsed value once
+	 * @throws IOException	if an error occurs while reading or writing
+	 */
+	static void convert(String textFilename, String binaryFilename, int chunkRows, boolean single)
+			throws IOException {
+		int entryBytes = single ? Float.BYTES : Double.BYTES;
+		try(ChunkedDataReader in = new ChunkedDataReader(textFilename);
+				FileChannel channel = FileChannel.open(Paths.get(binaryFilename),
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, header(in.rows, in.cols, single ? FLOAT32 : FLOAT64, COLUMN_MAJOR),
+					0);
+			DenseMatrix buffer = DenseMatrix.zeros(Math.max(1, Math.min(chunkRows, in.rows)), in.cols);
+			ByteBuffer column = ByteBuffer.allocate(buffer.rows * entryBytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			long firstRow = 0;
+			for(DenseMatrix block = in.next(buffer); block != null; block = in.next(buffer)) {
+				for(int i = 0; i < block.cols; i++) {
+					column.clear();
+					for(int j = 0; j < block.rows; j++) {
+						if(single) {
+							column.putFloat((float) block.get(j, i));
+						} else {
+							column.putDouble(block.get(j, i));
+						}
+					}
+					column.flip();
+					writeFully(channel, column, HEADER_BYTES + ((long) i * in.rows + firstRow)
+							* entryBytes);
+				}
+				firstRow += block.rows;
+			}
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of buf to filename. The bytes are written under a temporary
+	 * name and then renamed, so an interrupted write never replaces a good file with a partial
+	 * one.
+	 * @throws IOException	if the file cannot be written
+	 */
+	static void writeAtomically(String filename, ByteBuffer buf) throws IOException {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.SAVE);
+		java.nio.file.Path temp = Paths.get(filename + ".tmp");
+		int written;
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			written = writeFully(channel, buf, 0);
+			channel.force(true);
+		}
+		java.nio.file.Files.move(temp, Paths.get(filename),
+				java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+				java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+		Metrics.stop(timer, 0, written);
+	}
+
+	/**
+	 * Writes all remaining bytes of buf to channel starting at position.
+	 * @return	the number of bytes written
+	 */
+	static int writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		int written = 0;
+		while(buf.hasRemaining()) {
+			written += channel.write(buf, position + written);
+		}
+		return written;
+	}
+}
@@ -0,0 +1,119 @@
+import java.io.*;
+
+/**
+ * Reads a data file in the format accepted by PCA a block of rows at a time, so that only one
+ * block needs to be held in memory. The first line of the file gives the number of rows R and
+ * the number of columns C; each following line holds the C values of one data point. Lines are
+ * parsed by TextDataParser, so the same delimiters are accepted.
+ *
+ * A file in the binary matrix format (BinaryMatrixFile) is memory-mapped instead, and each block
+ * is copied out of the mapping, so every mode that reads data in blocks also accepts the output
+ * of --convert.
+ */
+class ChunkedDataReader implements Closeable {
+
+	final int rows; //Number of data points declared in the header
+	final int cols; //Number of variables declared in the header
+	private final InputStream in; //null for a binary file
+	private final DenseMatrix mapped; //The mapped table of a binary file; null for a text file
+	private byte[] line = new byte[1 << 12];
+	private int lineLength;
+	private int rowsRead = 0;
+
+	/**
+	 * Opens filename and reads its header.
+	 * @param filename	the name of the file containing the data
+	 * @throws IOException	if the file cannot be opened or its header is malformed
+	 */
+	ChunkedDataReader(String filename) throws IOException {
+		if(BinaryMatrixFile.isBinary(filename)) {
+			in = null;
+			mapped = BinaryMatrixFile.map(filename);
+			rows = mapped.rows;
+			cols = mapped.cols;
+			return;
+		}
+		mapped = null;
+		in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		try {
+			if(!readLine()) {
+				throw new IOException("Empty data file " + filename);
+			}
+			int[] dims = TextDataParser.parseHeader(line, 0, lineLength); // <# points> <#dimensions>
+			rows = dims[0];
+			cols = dims[1];
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads up to buffer.rows data points into the leading rows of buffer.
+	 * @param buffer	matrix with cols columns to fill; one row per data point
+	 * @return			a view of the rows that were filled, or null if every row has been read
+	 * @throws IOException	if the file ends early or cannot be read
+	 */
+	DenseMatrix next(DenseMatrix buffer) throws IOException {
+		if(rowsRead == rows) {
+			return null;
+		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.PARSE);
+		int count = Math.min(buffer.rows, rows - rowsRead);
+		long bytes = 8L * count * cols;
+		if(mapped != null) {
+			mapped.submatrix(rowsRead, 0, count, cols).copyInto(buffer.submatrix(0, 0, count, cols));
+			rowsRead += count;
+			bytes += (long) count * cols * (mapped.isSinglePrecision() ? Float.BYTES : Double.BYTES);
+			Metrics.stop(timer, 0, bytes);
+			return buffer.submatrix(0, 0, count, cols);
+		}
+		double[] values = new double[cols];
+		for(int j = 0; j < count; j++) {
+			do {
+				if(!readLine()) {
+					throw new IOException("Data file ended after " + (rowsRead + j) + " of " + rows
+							+ " rows.");
+				}
+				bytes += lineLength + 1;
+			} while(TextDataParser.isBlank(line, 0, lineLength));
+			TextDataParser.parseRow(line, 0, lineLength, values, 0, cols, rowsRead + j + 1);
+			for(int i = 0; i < cols; i++) {
+				buffer.set(j, i, values[i]);
+			}
+		}
+		rowsRead += count;
+		Metrics.stop(timer, 0, bytes);
+		return buffer.submatrix(0, 0, count, cols);
+	}
+
+	/**
+	 * Reads the next line, without its terminator, into line.
+	 * @return	false if the end of the file has been reached
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		int b = in.read();
+		if(b < 0) {
+			return false;
+		}
+		while(b >= 0 && b != '\n') {
+			if(lineLength == line.length) {
+				line = java.util.Arrays.copyOf(line, line.length * 2);
+			}
+			line[lineLength++] = (byte) b;
+			b = in.read();
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the underlying file. The mapping of a binary file needs no closing.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(in != null) {
+			in.close();
+		}
+	}
+}
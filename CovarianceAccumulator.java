@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Accumulates the count, means and covariance of a data set that is seen a block of rows at a
+ * time, so the full table never has to be held in memory. Memory use is one p x p matrix plus
+ * two vectors of length p, where p is the number of variables.
+ *
+ * Rows are accumulated around a fixed shift (the mean of the first block) to avoid the
+ * cancellation of the naive sum-of-squares formula. Two accumulators over disjoint rows can be
+ * combined with merge, which uses Chan et al.'s pairwise update.
+ *
+ * The statistics can be saved to a file and loaded in another process, so that shards of a data
+ * set can be scanned separately and merged later (see ShardedPCA). The file is a 32-byte
+ * little-endian header (MAGIC, VERSION, the number of variables p, padding, the count as a long
+ * and padding) followed by the p means and the upper triangle of the centered second moments,
+ * column by column (p(p + 1)/2 values), all as doubles.
+ */
+class CovarianceAccumulator {
+
+	static final int MAGIC = 0x53414350; //"PCAS" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+
+	final int numVariables;
+	private long count = 0;
+	private double[] shift; //Values subtracted from every row before accumulation
+	private final double[] sums; //sums[i] is the sum of (x_i - shift_i) over all rows
+	private final DenseMatrix cross; //Upper triangle of the sum of (x - shift)(x - shift)^T
+
+	/**
+	 * Creates an empty accumulator for data with the given number of variables.
+	 */
+	CovarianceAccumulator(int numVariables) {
+		this.numVariables = numVariables;
+		this.sums = new double[numVariables];
+		this.cross = DenseMatrix.zeros(numVariables, numVariables);
+	}
+
+	/**
+	 * Adds a block of data points to the accumulator. The block is shifted in place, so its
+	 * contents are undefined afterwards.
+	 * @param rows	block of data; each row is a data point and each column a variable
+	 */
+	void add(DenseMatrix rows) {
+		if(rows.cols != numVariables) {
+			throw new MatrixException("Expected " + numVariables + " variables, got " + rows.cols);
+		}
+		if(rows.rows == 0) {
+			return;
+		}
+		if(shift == null) {
+			shift = new Data(rows).columnMeans();
+		}
+		for(int i = 0; i < numVariables; i++) {
+			double sum = 0;
+			for(int j = 0; j < rows.rows; j++) {
+				double value = rows.get(j, i) - shift[i];
+				rows.set(j, i, value);
+				sum += value;
+			}
+			sums[i] += sum;
+		}
+		Kernels.syrk(rows, cross);
+		count += rows.rows;
+	}
+
+	/**
+	 * Adds every data point in a text data file, reading it a block of rows at a time.
+	 * @param filename	the name of the file containing the data
+	 * @param chunkRows	number of rows held in memory at a time
+	 * @throws IOException	if an error occurs while reading the file
+	 */
+	void add(String filename, int chunkRows) throws IOException {
+		try(ChunkedDataReader in = new ChunkedDataReader(filename)) {
+			if(in.cols != numVariables) {
+				throw new IOException(filename + " has " + in.cols + " columns; expected "
+						+ numVariables + ".");
+			}
+			DenseMatrix buffer = DenseMatrix.zeros(Math.max(1, Math.min(chunkRows, in.rows)),
+					in.cols);
+			for(DenseMatrix block = in.next(buffer); block != null; block = in.next(buffer)) {
+				add(block);
+			}
+		}
+	}
+
+	/**
+	 * Adds every data point seen by other to this accumulator.
+	 */
+	void merge(CovarianceAccumulator other) {
+		if(other.numVariables != numVariables) {
+			throw new MatrixException("Cannot merge statistics over different numbers of variables.");
+		}
+		if(other.count == 0) {
+			return;
+		}
+		if(count == 0) {
+			count = other.count;
+			shift = other.shift.clone();
+			System.arraycopy(other.sums, 0, sums, 0, numVariables);
+			other.cross.copyInto(cross);
+			return;
+		}
+		//Chan et al.: M = M_a + M_b + (delta)(delta^T) n_a n_b / n, delta = mean_b - mean_a
+		double[] meanA = means();
+		double[] meanB = other.means();
+		DenseMatrix momentsB = other.centeredMoments();
+		centeredMoments(); //Rewrites cross around this accumulator's own mean
+		double nA = count;
+		double nB = other.count;
+		double factor = nA * nB / (nA + nB);
+		for(int j = 0; j < numVariables; j++) {
+			double deltaJ = meanB[j] - meanA[j];
+			for(int i = 0; i <= j; i++) {
+				double deltaI = meanB[i] - meanA[i];
+				cross.set(i, j, cross.get(i, j) + momentsB.get(i, j) + deltaI * deltaJ * factor);
+			}
+		}
+		count += other.count;
+		for(int i = 0; i < numVariables; i++) {
+			shift[i] = meanA[i] + (meanB[i] - meanA[i]) * nB / count;
+			sums[i] = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of data points accumulated.
+	 */
+	long count() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of every variable.
+	 */
+	double[] means() {
+		double[] means = new double[numVariables];
+		for(int i = 0; i < numVariables && count > 0; i++) {
+			means[i] = shift[i] + sums[i]/count;
+		}
+		return means;
+	}
+
+	/**
+	 * Returns the sample covariance matrix of the accumulated data points.
+	 */
+	DenseMatrix covariance() {
+		if(count < 2) {
+			throw new MatrixException("Covariance needs at least two data points.");
+		}
+		DenseMatrix out = DenseMatrix.zeros(numVariables, numVariables);
+		double divisor = count - 1;
+		for(int j = 0; j < numVariables; j++) {
+			for(int i = 0; i <= j; i++) {
+				double value = (cross.get(i, j) - sums[i] * sums[j] / count) / divisor;
+				out.set(i, j, value);
+				out.set(j, i, value);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Saves the statistics. They are first re-expressed around the mean, so the file holds the
+	 * centered second moments. An interrupted save never replaces a good file with a partial one.
+	 * @param filename	the name of the statistics file
+	 * @throws IOException	if the file cannot be written, or the statistics are too large for one
+	 * 						file
+	 */
+	void save(String filename) throws IOException {
+		checkFileSize(numVariables);
+		centeredMoments();
+		double[] means = means();
+		ByteBuffer buf = ByteBuffer.allocate((int) fileBytes(numVariables))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(numVariables).putInt(0);
+		buf.putLong(count).putLong(0);
+		for(double mean: means) {
+			buf.putDouble(mean);
+		}
+		for(int j = 0; j < numVariables; j++) {
+			for(int i = 0; i <= j; i++) {
+				buf.putDouble(cross.get(i, j));
+			}
+		}
+		buf.flip();
+		BinaryMatrixFile.writeAtomically(filename, buf);
+	}
+
+	/**
+	 * Returns the size of the statistics file of numVariables variables.
+	 */
+	static long fileBytes(int numVariables) {
+		return HEADER_BYTES + (numVariables + (long) numVariables * (numVariables + 1) / 2)
+				* Double.BYTES;
+	}
+
+	/**
+	 * Throws an IOException if the statistics of numVariables variables are too large for one
+	 * file.
+	 */
+	static void checkFileSize(int numVariables) throws IOException {
+		if(fileBytes(numVariables) > Integer.MAX_VALUE) {
+			throw new IOException("Statistics of " + numVariables
+					+ " variables are too large to save; use a sketch.");
+		}
+	}
+
+	/**
+	 * Loads statistics saved by save.
+	 * @param filename	the name of the statistics file
+	 * @return			an accumulator holding the statistics
+	 * @throws IOException	if the file cannot be read or is not a statistics file
+	 */
+	static CovarianceAccumulator load(String filename) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		if(buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+			throw new IOException(filename + " is not a PCA statistics file.");
+		}
+		if(buf.getInt() != VERSION) {
+			throw new IOException("Unsupported statistics version " + buf.getInt(4));
+		}
+		int p = buf.getInt();
+		buf.getInt();
+		long count = buf.getLong();
+		buf.position(HEADER_BYTES);
+		if(p < 1 || count < 0
+				|| buf.remaining() != (p + (long) p * (p + 1) / 2) * Double.BYTES) {
+			throw new IOException("Malformed statistics file " + filename);
+		}
+		CovarianceAccumulator out = new CovarianceAccumulator(p);
+		out.count = count;
+		out.shift = new double[p];
+		for(int i = 0; i < p; i++) {
+			out.shift[i] = buf.getDouble();
+		}
+		for(int j = 0; j < p; j++) {
+			for(int i = 0; i <= j; i++) {
+				out.cross.set(i, j, buf.getDouble());
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Re-expresses the accumulated sums around the current mean, so that cross holds the upper
+	 * triangle of the centered second moments and sums is zero.
+	 * @return	cross
+	 */
+	private DenseMatrix centeredMoments() {
+		if(count == 0) {
+			return cross;
+		}
+		double[] means = means();
+		for(int j = 0; j < numVariables; j++) {
+			for(int i = 0; i <= j; i++) {
+				cross.set(i, j, cross.get(i, j) - sums[i] * sums[j] / count);
+			}
+		}
+		shift = means;
+		java.util.Arrays.fill(sums, 0);
+		return cross;
+	}
+}
@@ -5,14 +5,25 @@
  * @version	051313
  */
 class Data {
-	double[][] matrix; //matrix[i] is the ith row; matrix[i][j] is the ith row, jth column
+	DenseMatrix matrix; //matrix.get(j, i) is the value of the ith variable for the jth data point
+	boolean usedGramMatrix; //Set by getCovarianceEigenSet: true if the Gram matrix was decomposed
 	
 	/**
 	 * Constructs a new data matrix.
-	 * @param vals	data for new Data object; dimensions as columns, data points as rows.
+	 * @param vals	data for new Data object; vals[i] holds the values of the ith variable for
+	 * 				every data point.
 	 */
 	Data(double[][] vals) {
-		matrix = Matrix.copy(vals);
+		matrix = DenseMatrix.fromColumns(vals);
+	}
+	
+	/**
+	 * Constructs a new data matrix around existing storage without copying it. The Data object
+	 * takes ownership of vals: center() updates it in place unless it is read-only.
+	 * @param vals	data for new Data object; dimensions as columns, data points as rows.
+	 */
+	Data(DenseMatrix vals) {
+		matrix = vals;
 	}
 	
 	/**
@@ -37,7 +48,7 @@ class Data {
 		System.out.println("Corresponding eigenvectors:");
 		Matrix.print(eigen.vectors);
 		System.out.println("Two principal components:");
-		Matrix.print(dat.buildPrincipalComponents(2, eigen));
+		Matrix.print(Data.buildPrincipalComponents(2, eigen));
 		System.out.println("Principal component transformation:");
 		Matrix.print(Data.principalComponentAnalysis(data, 2));
 	}
@@ -51,11 +62,135 @@ class Data {
 	 * @return				the scores of the data array against the PCS
 	 */
 	static double[][] PCANIPALS(double[][] input, int numComponents) {
+		return PCANIPALS(DenseMatrix.fromColumns(input), numComponents);
+	}
+	
+	/**
+	 * DenseMatrix version of PCANIPALS(double[][], int). The input is used as the storage of the
+	 * Data object without being copied, and is centered in place unless it is read-only.
+	 * @param input			input raw data; each row is a data point
+	 * @param numComponents	desired number of PCs
+	 * @return				the scores of the data array against the PCS
+	 */
+	static double[][] PCANIPALS(DenseMatrix input, int numComponents) {
+		Data data = new Data(input);
+		data.center();
+		return scores(data.NIPALSAlg(numComponents), input.rows);
+	}
+	
+	static final int RANDOMIZED_OVERSAMPLING = 10; //Extra random directions beyond numComponents
+	static final int RANDOMIZED_POWER_ITERATIONS = 2;
+	static final long RANDOMIZED_SEED = 42;
+	
+	/**
+	 * Approximate PCA by randomized SVD. The return value has the same layout as that of
+	 * PCANIPALS(double[][], int).
+	 * @param input			input raw data array
+	 * @param numComponents	desired number of PCs
+	 * @return				the scores of the data array against the PCS
+	 */
+	static double[][] PCARandomized(double[][] input, int numComponents) {
+		return PCARandomized(DenseMatrix.fromColumns(input), numComponents);
+	}
+	
+	/**
+	 * DenseMatrix version of PCARandomized(double[][], int), with the default oversampling,
+	 * number of power iterations and seed. The input is centered in place unless it is
+	 * read-only.
+	 * @param input			input raw data; each row is a data point
+	 * @param numComponents	desired number of PCs
+	 * @return				the scores of the data array against the PCS
+	 */
+	static double[][] PCARandomized(DenseMatrix input, int numComponents) {
+		return PCARandomized(input, numComponents, RANDOMIZED_OVERSAMPLING,
+				RANDOMIZED_POWER_ITERATIONS, RANDOMIZED_SEED);
+	}
+	
+	/**
+	 * Approximate PCA by randomized SVD with the given parameters. The same seed always gives the
+	 * same result.
+	 * @param input				input raw data; each row is a data point
+	 * @param numComponents		desired number of PCs
+	 * @param oversampling		number of random directions sampled beyond numComponents
+	 * @param powerIterations	number of power iterations used to sharpen the sampled subspace
+	 * @param seed				seed of the random test matrix
+	 * @return					the scores of the data array against the PCS
+	 */
+	static double[][] PCARandomized(DenseMatrix input, int numComponents, int oversampling,
+			int powerIterations, long seed) {
 		Data data = new Data(input);
 		data.center();
-		double[][][] PCA = data.NIPALSAlg(numComponents);
-		double[][] scores = new double[numComponents][input[0].length];
-		for(int point = 0; point < scores[0].length; point++) {
+		return scores(data.randomizedAlg(numComponents, oversampling, powerIterations, seed),
+				input.rows);
+	}
+	
+	static final int SUBSPACE_GUARD = 8; //Extra basis vectors that speed up convergence
+	static final double SUBSPACE_TOLERANCE = 1e-8; //Residual norm, relative to the largest eigenvalue
+	static final int SUBSPACE_MAX_ITERATIONS = 10000;
+	static final long SUBSPACE_SEED = 42;
+	
+	/**
+	 * PCA by block power (subspace) iteration, which finds all components at once. The return
+	 * value has the same layout as that of PCANIPALS(double[][], int).
+	 * @param input			input raw data array
+	 * @param numComponents	desired number of PCs
+	 * @return				the scores of the data array against the PCS
+	 */
+	static double[][] PCASubspace(double[][] input, int numComponents) {
+		return PCASubspace(DenseMatrix.fromColumns(input), numComponents);
+	}
+	
+	/**
+	 * DenseMatrix version of PCASubspace(double[][], int). The input is centered in place unless
+	 * it is read-only.
+	 * @param input			input raw data; each row is a data point
+	 * @param numComponents	desired number of PCs
+	 * @return				the scores of the data array against the PCS
+	 */
+	static double[][] PCASubspace(DenseMatrix input, int numComponents) {
+		Data data = new Data(input);
+		data.center();
+		return scores(data.subspaceAlg(numComponents), input.rows);
+	}
+	
+	/**
+	 * Finds the principal components of the data matrix, which should already be centered, with
+	 * the named algorithm.
+	 * @param method		"nipals", "subspace", "randomized", "eigen" or "svd"
+	 * @param numComponents	number of principal components desired
+	 * @return				the output of NIPALSAlg, subspaceAlg, randomizedAlg, eigenAlg or
+	 * 						svdAlg
+	 */
+	double[][][] fit(String method, int numComponents) {
+		return fit(method, numComponents, new NIPALSControl());
+	}
+	
+	/**
+	 * Version of fit(String, int) that passes control to NIPALSAlg. Other methods ignore it.
+	 */
+	double[][][] fit(String method, int numComponents, NIPALSControl control) {
+		if(method.equals("nipals")) {
+			return NIPALSAlg(numComponents, control);
+		} else if(method.equals("subspace")) {
+			return subspaceAlg(numComponents);
+		} else if(method.equals("randomized")) {
+			return randomizedAlg(numComponents, RANDOMIZED_OVERSAMPLING,
+					RANDOMIZED_POWER_ITERATIONS, RANDOMIZED_SEED);
+		} else if(method.equals("eigen")) {
+			return eigenAlg(numComponents);
+		} else if(method.equals("svd")) {
+			return svdAlg(numComponents);
+		}
+		throw new IllegalArgumentException("Unknown PCA method " + method);
+	}
+	
+	/**
+	 * Rearranges the output of NIPALSAlg, randomizedAlg, subspaceAlg, eigenAlg or svdAlg into
+	 * scores[comp][point].
+	 */
+	static double[][] scores(double[][][] PCA, int numPoints) {
+		double[][] scores = new double[PCA.length][numPoints];
+		for(int point = 0; point < numPoints; point++) {
 			for(int comp = 0; comp < PCA.length; comp++) {
 				scores[comp][point] = PCA[comp][0][point];
 			}
@@ -63,43 +198,268 @@ class Data {
 		return scores;
 	}
 	
+	static final double NIPALS_TOLERANCE = 1e-8; //Residual norm, relative to the eigenvalue
+	static final int NIPALS_MAX_ITERATIONS = 10000;
+	
 	/**
 	 * Implementation of the non-linear iterative partial least squares algorithm on the data
-	 * matrix for this Data object. The number of PCs returned is specified by the user.
+	 * matrix for this Data object, with the default NIPALSControl.
 	 * @param numComponents	number of principal components desired
 	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
 	 * 						and loadings, respectively, of the ith principal component.
 	 */
 	double[][][] NIPALSAlg(int numComponents) {
-		final double THRESHOLD = 0.00001;
+		return NIPALSAlg(numComponents, new NIPALSControl());
+	}
+	
+	/**
+	 * Implementation of the non-linear iterative partial least squares algorithm on the data
+	 * matrix for this Data object. The number of PCs returned is specified by the user.
+	 * The residual matrix E is the only copy of the data made for the whole fit. Each iteration
+	 * is one gemv and one gemvTranspose over E into a fixed set of work vectors, and each
+	 * component is removed from E in place by a rank-1 update that also computes the first
+	 * product for the next component, so the iterations copy no matrices or vectors. (Each
+	 * parallel kernel call still allocates its loop body, and above Parallel.THRESHOLD its
+	 * fork-join tasks; these are small and independent of the size of E.) Each component starts
+	 * from its loading in control.startingLoadings if there is one, and from (E^T) times a
+	 * column of E otherwise; it stops as control describes.
+	 * @param numComponents	number of principal components desired
+	 * @param control		tolerance, iteration bound and initial loadings; receives the
+	 * 						iterations and residual of each component
+	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
+	 * 						and loadings, respectively, of the ith principal component.
+	 */
+	double[][][] NIPALSAlg(int numComponents, NIPALSControl control) {
 		double[][][] out = new double[numComponents][][];
-		double[][] E = Matrix.copy(matrix);
+		control.begin(numComponents);
+		if(numComponents == 0) {
+			return out;
+		}
+		DenseMatrix E = matrix.copy(); //Deflated in place
+		double[] t = new double[matrix.rows];
+		double[] p = new double[matrix.cols];
+		double[] nextT = new double[matrix.rows];
+		double[] nextP = new double[matrix.cols];
+		double[][] start = control.startingLoadings(matrix.cols, V -> Matrix.multiply(matrix, V));
+		if(start.length == 0) {
+			Kernels.gemvTranspose(E, matrix.columnToArray(0, t), p);
+		}
+		long m = matrix.rows;
+		long n = matrix.cols;
 		for(int i = 0; i < out.length; i++) {
-			double eigenOld = 0;
-			double eigenNew = 0;
-			double[] p = new double[matrix[0].length];
-			double[] t = new double[matrix[0].length];
-			double[][] tMatrix = {t};
-			double[][] pMatrix = {p};
-			for(int j = 0; j < t.length; j++) {
-				t[j] = matrix[i][j];
+			Metrics.OperationEvent component = Metrics.start(Metrics.Op.NIPALS_COMPONENT);
+			if(i < start.length) {
+				System.arraycopy(start[i], 0, p, 0, p.length);
 			}
+			double residual = 0;
+			int iterations = 0;
 			do {
-				eigenOld = eigenNew;
-				double tMult = 1/Matrix.dot(t, t);
-				tMatrix[0] = t;
-				p = Matrix.scale(Matrix.multiply(Matrix.transpose(E), tMatrix), tMult)[0];
-				p = Matrix.normalize(p);
-				double pMult = 1/Matrix.dot(p, p);
-				pMatrix[0] = p;
-				t = Matrix.scale(Matrix.multiply(E, pMatrix), pMult)[0];
-				eigenNew = Matrix.dot(t, t);
-			} while(Math.abs(eigenOld - eigenNew) > THRESHOLD);
-			tMatrix[0] = t;
-			pMatrix[0] = p;
-			double[][] PC = {t, p}; //{scores, loadings}
-			E = Matrix.subtract(E, Matrix.multiply(tMatrix, Matrix.transpose(pMatrix)));
+				Metrics.OperationEvent iteration = Metrics.start(Metrics.Op.NIPALS_ITERATION);
+				if(iterations > 0) {
+					double[] swap = p; //p := (E^T)Ep from the last iteration
+					p = nextP;
+					nextP = swap;
+				}
+				scaleInPlace(p, 1/Matrix.norm(p));
+				Kernels.gemv(E, p, t);
+				Kernels.gemvTranspose(E, t, nextP);
+				residual = NIPALSControl.residual(nextP, Matrix.dot(t, t), p);
+				iterations++;
+				Metrics.stop(iteration, 6 * n + 2 * m, 8 * (5 * n + 2 * m));
+			} while(residual > control.tolerance && iterations < control.maxIterations);
+			control.iterations[i] = iterations;
+			control.residuals[i] = residual;
+			Metrics.nipalsConverged(i, iterations, Matrix.dot(t, t), residual);
+			Metrics.stop(component, 0, 0);
+			double[][] PC = {t.clone(), p.clone()}; //{scores, loadings}
 			out[i] = PC;
+			if(i + 1 < out.length) {
+				boolean cold = i + 1 >= start.length;
+				Kernels.deflate(E, t, p, cold ? matrix.columnToArray(i + 1, nextT) : null, nextP);
+				double[] swap = t;
+				t = nextT;
+				nextT = swap;
+				swap = p;
+				p = nextP;
+				nextP = swap;
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Multiplies every entry of vec by coeff in place.
+	 */
+	private static void scaleInPlace(double[] vec, double coeff) {
+		VectorKernels.ACTIVE.scale(coeff, vec, 0, vec, 0, vec.length);
+	}
+	
+	/**
+	 * Block version of NIPALSAlg: subspace iteration with Rayleigh-Ritz on the data matrix, which
+	 * should already be centered. A basis V of numComponents + SUBSPACE_GUARD vectors is iterated
+	 * together. Each iteration computes W = XV and Z = (X^T)W with two matrix-matrix products,
+	 * diagonalizes the small matrix (W^T)W = (V^T)(X^T)XV to rotate V onto its Ritz vectors, and
+	 * re-orthonormalizes Z as the next basis. Unlike NIPALS there is no deflation, every pass over
+	 * the data serves all components at once, and the products are blocked level-3 operations
+	 * that run in parallel. Iteration stops once the Ritz vector of every requested component
+	 * has a residual of at most SUBSPACE_TOLERANCE times the largest eigenvalue.
+	 * @param numComponents	number of principal components desired
+	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
+	 * 						and loadings, respectively, of the ith principal component.
+	 */
+	double[][][] subspaceAlg(int numComponents) {
+		int rank = Math.min(matrix.rows, matrix.cols);
+		if(numComponents > rank) {
+			throw new MatrixException("Cannot produce more principal components than " + rank + ".");
+		}
+		int size = Math.min(rank, numComponents + SUBSPACE_GUARD);
+		java.util.Random random = new java.util.Random(SUBSPACE_SEED);
+		DenseMatrix V = DenseMatrix.zeros(matrix.cols, size);
+		for(int c = 0; c < size; c++) {
+			for(int i = 0; i < matrix.cols; i++) {
+				V.set(i, c, random.nextGaussian());
+			}
+		}
+		Matrix.orthonormalizeColumns(V);
+		for(int it = 0; it < SUBSPACE_MAX_ITERATIONS; it++) {
+			DenseMatrix W = Matrix.multiply(matrix, V);
+			DenseMatrix Z = Matrix.multiply(matrix.transpose(), W);
+			//Rayleigh-Ritz: (W^T)W is the projection of (X^T)X onto the span of V
+			DenseMatrix H = DenseMatrix.zeros(size, size);
+			Kernels.syrk(W, H);
+			Kernels.mirrorUpper(H);
+			EigenSet ritz = SymmetricEigensolver.decompose(H);
+			DenseMatrix Y = DenseMatrix.fromColumns(ritz.vectors);
+			DenseMatrix ritzVectors = Matrix.multiply(V, Y);
+			DenseMatrix next = Matrix.multiply(Z, Y); //(X^T)X times the Ritz vectors
+			double worst = 0;
+			for(int c = 0; c < numComponents; c++) {
+				double sum = 0;
+				for(int i = 0; i < matrix.cols; i++) {
+					double r = next.get(i, c) - ritz.values[c] * ritzVectors.get(i, c);
+					sum += r * r;
+				}
+				worst = Math.max(worst, Math.sqrt(sum));
+			}
+			if(worst <= SUBSPACE_TOLERANCE * Math.abs(ritz.values[0])) {
+				DenseMatrix T = Matrix.multiply(W, Y); //Scores of the Ritz vectors
+				double[][][] out = new double[numComponents][][];
+				for(int c = 0; c < numComponents; c++) {
+					double[][] PC = {T.columnToArray(c), ritzVectors.columnToArray(c)};
+					out[c] = PC;
+				}
+				return out;
+			}
+			Matrix.orthonormalizeColumns(next);
+			V = next;
+		}
+		throw new MatrixException("Subspace iteration did not converge.");
+	}
+	
+	/**
+	 * Randomized SVD (Halko, Martinsson and Tropp) of the data matrix, which should already be
+	 * centered. A Gaussian test matrix with numComponents + oversampling columns is multiplied by
+	 * the data to sample its range, and each power iteration multiplies by (X^T)X again,
+	 * re-orthonormalizing in between, to suppress the smaller singular values. The data is then
+	 * projected onto the orthonormal basis Q of the sample, B = (Q^T)X, and the small matrix
+	 * B(B^T) is diagonalized exactly. Every pass over the data is a product with a tall, skinny
+	 * matrix, so the cost is O(np(k + oversampling)) per pass with 2 + 2 * powerIterations passes.
+	 * @param numComponents		number of principal components desired
+	 * @param oversampling		number of random directions sampled beyond numComponents
+	 * @param powerIterations	number of power iterations
+	 * @param seed				seed of the random test matrix
+	 * @return					a double[][][] where the ith double[][] contains ti and pi, the
+	 * 							scores and loadings, respectively, of the ith principal component.
+	 */
+	double[][][] randomizedAlg(int numComponents, int oversampling, int powerIterations,
+			long seed) {
+		int rank = Math.min(matrix.rows, matrix.cols);
+		if(numComponents > rank) {
+			throw new MatrixException("Cannot produce more principal components than " + rank + ".");
+		}
+		int samples = Math.min(rank, numComponents + oversampling);
+		java.util.Random random = new java.util.Random(seed);
+		DenseMatrix omega = DenseMatrix.zeros(matrix.cols, samples);
+		for(int c = 0; c < samples; c++) {
+			for(int i = 0; i < matrix.cols; i++) {
+				omega.set(i, c, random.nextGaussian());
+			}
+		}
+		DenseMatrix Q = Matrix.multiply(matrix, omega);
+		Matrix.orthonormalizeColumns(Q);
+		for(int it = 0; it < powerIterations; it++) {
+			DenseMatrix Z = Matrix.multiply(matrix.transpose(), Q);
+			Matrix.orthonormalizeColumns(Z);
+			Q = Matrix.multiply(matrix, Z);
+			Matrix.orthonormalizeColumns(Q);
+		}
+		DenseMatrix B = Matrix.multiply(Q.transpose(), matrix);
+		//B(B^T) = U(S^2)(U^T); the loadings are (B^T)U/S and the scores XV = QUS
+		EigenSet eigen = SymmetricEigensolver.decompose(Matrix.multiply(B, B.transpose()));
+		DenseMatrix U = DenseMatrix.zeros(samples, numComponents);
+		for(int c = 0; c < numComponents; c++) {
+			for(int i = 0; i < samples; i++) {
+				U.set(i, c, eigen.vectors[c][i]);
+			}
+		}
+		DenseMatrix T = Matrix.multiply(Q, U);
+		DenseMatrix P = Matrix.multiply(B.transpose(), U);
+		double[][][] out = new double[numComponents][][];
+		for(int c = 0; c < numComponents; c++) {
+			double s = Math.sqrt(Math.max(eigen.values[c], 0));
+			double[] t = T.columnToArray(c);
+			double[] p = P.columnToArray(c);
+			for(int j = 0; j < t.length; j++) {
+				t[j] *= s;
+			}
+			for(int i = 0; i < p.length; i++) {
+				p[i] = s > 0 ? p[i]/s : 0;
+			}
+			out[c] = new double[][] {t, p}; //{scores, loadings}
+		}
+		return out;
+	}
+	
+	/**
+	 * PCA by eigendecomposition of the covariance matrix of the data matrix, which should already
+	 * be centered, or of its Gram matrix when that is smaller (see getCovarianceEigenSet). The
+	 * loadings are the eigenvectors, and the scores are the products of the data with them.
+	 * usedGramMatrix tells afterwards which of the two was decomposed.
+	 * @param numComponents	number of principal components desired
+	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
+	 * 						and loadings, respectively, of the ith principal component.
+	 */
+	double[][][] eigenAlg(int numComponents) {
+		EigenSet eigen = getCovarianceEigenSet(numComponents, new double[matrix.cols]);
+		double[][][] out = new double[numComponents][][];
+		for(int c = 0; c < numComponents; c++) {
+			double[] t = new double[matrix.rows];
+			Kernels.gemv(matrix, eigen.vectors[c], t);
+			out[c] = new double[][] {t, eigen.vectors[c]}; //{scores, loadings}
+		}
+		return out;
+	}
+	
+	/**
+	 * PCA by singular value decomposition of the data matrix, which should already be centered.
+	 * If X = US(V^T), the loadings are the columns of V and the scores the columns of U times the
+	 * singular values. The covariance matrix is never formed, so small components keep their
+	 * accuracy where squaring the data would lose it.
+	 * @param numComponents	number of principal components desired
+	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
+	 * 						and loadings, respectively, of the ith principal component.
+	 */
+	double[][][] svdAlg(int numComponents) {
+		int rank = Math.min(matrix.rows, matrix.cols);
+		if(numComponents > rank) {
+			throw new MatrixException("Cannot produce more principal components than " + rank + ".");
+		}
+		SVDSet svd = Matrix.singularValueDecomposition(matrix);
+		double[][][] out = new double[numComponents][][];
+		for(int c = 0; c < numComponents; c++) {
+			double[] t = svd.U.columnToArray(c);
+			VectorKernels.ACTIVE.scale(svd.values[c], t, 0, t, 0, t.length);
+			out[c] = new double[][] {t, svd.V.columnToArray(c)}; //{scores, loadings}
 		}
 		return out;
 	}
@@ -110,6 +470,8 @@ class Data {
 	
 	/**
 	 * Performs principal component analysis with a specified number of principal components.
+	 * The covariance eigenproblem is solved through the Gram matrix when there are fewer data
+	 * points than variables (see prefersGramMatrix); the transformed data is the same either way.
 	 * @param input			input data; each double[] in input is an array of values of a single
 	 * 						variable for each data point
 	 * @param numComponents	number of components desired
@@ -118,8 +480,8 @@ class Data {
 	static double[][] principalComponentAnalysis(double[][] input, int numComponents) {
 		Data data = new Data(input);
 		data.center();
-		EigenSet eigen = data.getCovarianceEigenSet();
-		double[][] featureVector = data.buildPrincipalComponents(numComponents, eigen);
+		EigenSet eigen = data.getCovarianceEigenSet(numComponents, new double[data.matrix.cols]);
+		double[][] featureVector = buildPrincipalComponents(numComponents, eigen);
 		double[][] PC = Matrix.transpose(featureVector);
 		double[][] inputTranspose = Matrix.transpose(input);
 		return Matrix.transpose(Matrix.multiply(PC, inputTranspose));
@@ -132,7 +494,7 @@ class Data {
 	 * @param eigen			EigenSet containing the eigenvalues and eigenvectors
 	 * @return				the numComponents most significant eigenvectors
 	 */
-	double[][] buildPrincipalComponents(int numComponents, EigenSet eigen) {
+	static double[][] buildPrincipalComponents(int numComponents, EigenSet eigen) {
 		double[] vals = eigen.values;
 		if(numComponents > vals.length) {
 			throw new RuntimeException("Cannot produce more principal components than those provided.");
@@ -157,14 +519,96 @@ class Data {
 	}
 	
 	/**
-	 * Uses the QR algorithm to determine the eigenvalues and eigenvectors of the covariance 
-	 * matrix for this data set. Iteration continues until no eigenvalue changes by more than 
-	 * 1/10000.
+	 * Determines every eigenvalue and eigenvector of the covariance matrix for this data set,
+	 * sorted by decreasing eigenvalue.
 	 * @return	an EigenSet containing the eigenvalues and eigenvectors of the covariance matrix
 	 */
 	EigenSet getCovarianceEigenSet() {
-		double[][] data = covarianceMatrix();
-		return Matrix.eigenDecomposition(data);
+		return Matrix.eigenDecomposition(covarianceDenseMatrix());
+	}
+	
+	/**
+	 * Determines only the numComponents largest eigenvalues of the covariance matrix and their
+	 * eigenvectors. The eigenproblem is solved on whichever of the p x p covariance matrix and
+	 * the n x n Gram matrix is smaller (see prefersGramMatrix), so memory and time grow with
+	 * min(n, p)^2 rather than p^2. Matrix.eigenDecomposition uses the Lanczos method on that
+	 * matrix when few components are wanted. The choice is recorded in usedGramMatrix and in
+	 * the fromGramMatrix flag of the result.
+	 * @param numComponents	number of eigenpairs desired
+	 * @return	an EigenSet with the numComponents largest eigenvalues in decreasing order
+	 */
+	EigenSet getCovarianceEigenSet(int numComponents) {
+		return getCovarianceEigenSet(numComponents, columnMeans());
+	}
+	
+	/**
+	 * getCovarianceEigenSet(int) for data whose column means are already known, so they are not
+	 * computed again; centered data passes zeros.
+	 * @param numComponents	number of eigenpairs desired
+	 * @param means			means[i] is the mean of the ith variable
+	 * @return	an EigenSet with the numComponents largest eigenvalues in decreasing order
+	 */
+	EigenSet getCovarianceEigenSet(int numComponents, double[] means) {
+		usedGramMatrix = prefersGramMatrix(matrix.rows, matrix.cols);
+		if(usedGramMatrix) {
+			return gramEigenSet(numComponents, means);
+		}
+		return Matrix.eigenDecomposition(covarianceDenseMatrix(means), numComponents);
+	}
+	
+	/**
+	 * Returns true if the covariance eigenproblem of a table with n data points and p variables
+	 * is cheaper to solve through the n x n Gram matrix X(X^T) of the centered data than through
+	 * its p x p covariance matrix. Forming the Gram matrix takes n^2 p multiply-adds instead of
+	 * n p^2, decomposing it n^3 instead of p^3, and it holds n^2 entries instead of p^2, so it is
+	 * preferred whenever there are fewer data points than variables.
+	 */
+	static boolean prefersGramMatrix(int n, int p) {
+		return n < p;
+	}
+	
+	/**
+	 * Finds the numComponents largest eigenpairs of the covariance matrix from those of the Gram
+	 * matrix G = X(X^T) of the centered data X. If Gu = su with u a unit vector, then
+	 * (X^T)X((X^T)u) = s(X^T)u, so (X^T)u/sqrt(s) is a unit eigenvector of the covariance matrix
+	 * with eigenvalue s/(n-1). The loadings are normalized by their computed norm rather than
+	 * by sqrt(s), so that components of (nearly) zero variance are not amplified by rounding.
+	 * The means are used both to form G and to recover the loadings.
+	 * @param numComponents	number of eigenpairs desired; at most the number of data points
+	 * @param means			means[i] is the mean of the ith variable; zeros for centered data
+	 * @return	an EigenSet with the numComponents largest eigenvalues in decreasing order
+	 */
+	EigenSet gramEigenSet(int numComponents, double[] means) {
+		int n = matrix.rows;
+		int p = matrix.cols;
+		if(numComponents > n) {
+			throw new MatrixException("Cannot produce more principal components than " + n + ".");
+		}
+		EigenSet gram = Matrix.eigenDecomposition(gramDenseMatrix(means), numComponents);
+		DenseMatrix U = DenseMatrix.fromColumns(gram.vectors);
+		DenseMatrix V = DenseMatrix.zeros(p, numComponents);
+		DenseMatrix block = DenseMatrix.zeros(n, Math.min(p, GRAM_BLOCK_COLS));
+		for(int i0 = 0; i0 < p; i0 += block.cols) {
+			int cols = Math.min(block.cols, p - i0);
+			DenseMatrix centered = block.submatrix(0, 0, n, cols);
+			centerInto(0, i0, centered, means);
+			Kernels.gemmAdd(centered.transpose(), U, V.submatrix(i0, 0, cols, numComponents), 0,
+					numComponents);
+		}
+		EigenSet out = new EigenSet();
+		out.values = new double[numComponents];
+		out.vectors = new double[numComponents][];
+		out.fromGramMatrix = true;
+		for(int c = 0; c < numComponents; c++) {
+			double[] v = V.columnToArray(c);
+			double norm = Matrix.norm(v);
+			if(norm > 0) {
+				scaleInPlace(v, 1/norm);
+			}
+			out.values[c] = gram.values[c]/(n - 1);
+			out.vectors[c] = v;
+		}
+		return out;
 	}
 	
 	/**
@@ -172,17 +616,123 @@ class Data {
 	 * @return	the covariance matrix of this data set
 	 */
 	double[][] covarianceMatrix() {
-		double[][] out = new double[matrix.length][matrix.length];
-		for(int i = 0; i < out.length; i++) {
-			for(int j = 0; j < out.length; j++) {
-				double[] dataA = matrix[i];
-				double[] dataB = matrix[j];
-				out[i][j] = covariance(dataA, dataB);
+		return covarianceDenseMatrix().toColumns();
+	}
+	
+	static final int COV_BLOCK_ROWS = 256; //Data points centered and accumulated at a time
+	static final int GRAM_BLOCK_COLS = 256; //Variables centered and accumulated at a time
+	
+	/**
+	 * Constructs the covariance matrix for this data set as a DenseMatrix. The column means are
+	 * computed once; the data is then centered COV_BLOCK_ROWS points at a time into a small
+	 * buffer, and each buffer is added to the cross-product matrix by a blocked rank-k update
+	 * that fills only the upper triangle. The lower triangle is mirrored at the end. The buffer
+	 * is always in double precision, so single precision data is widened as it is centered and
+	 * the products are accumulated in double.
+	 * @return	the covariance matrix of this data set
+	 */
+	DenseMatrix covarianceDenseMatrix() {
+		return covarianceDenseMatrix(columnMeans());
+	}
+	
+	/**
+	 * covarianceDenseMatrix() for data whose column means are already known.
+	 * @param means	means[i] is the mean of the ith variable; zeros for centered data
+	 * @return	the covariance matrix of this data set
+	 */
+	DenseMatrix covarianceDenseMatrix(double[] means) {
+		int n = matrix.rows;
+		int p = matrix.cols;
+		DenseMatrix out = DenseMatrix.zeros(p, p);
+		DenseMatrix block = DenseMatrix.zeros(Math.min(n, COV_BLOCK_ROWS), p);
+		for(int r0 = 0; r0 < n; r0 += block.rows) {
+			int rows = Math.min(block.rows, n - r0);
+			DenseMatrix centered = block.submatrix(0, 0, rows, p);
+			centerInto(r0, 0, centered, means);
+			Kernels.syrk(centered, out);
+		}
+		Kernels.mirrorUpper(out);
+		double divisor = n - 1;
+		for(int i = 0; i < p; i++) {
+			for(int j = 0; j < p; j++) {
+				out.set(j, i, out.get(j, i)/divisor);
 			}
 		}
 		return out;
 	}
 	
+	/**
+	 * Constructs the n x n Gram matrix X(X^T) of the centered data, whose entry (a, b) is the dot
+	 * product of centered data points a and b. The data is centered GRAM_BLOCK_COLS variables at
+	 * a time into a small buffer, and each buffer B is added by a blocked rank-k update
+	 * B(B^T) that fills only the upper triangle; the lower triangle is mirrored at the end. It is
+	 * not divided by n - 1.
+	 * @param means	means[i] is the mean of the ith variable; zeros for centered data
+	 * @return	the Gram matrix of this data set
+	 */
+	DenseMatrix gramDenseMatrix(double[] means) {
+		int n = matrix.rows;
+		int p = matrix.cols;
+		DenseMatrix out = DenseMatrix.zeros(n, n);
+		DenseMatrix block = DenseMatrix.zeros(n, Math.min(p, GRAM_BLOCK_COLS));
+		for(int i0 = 0; i0 < p; i0 += block.cols) {
+			int cols = Math.min(block.cols, p - i0);
+			DenseMatrix centered = block.submatrix(0, 0, n, cols);
+			centerInto(0, i0, centered, means);
+			Kernels.syrk(centered.transpose(), out);
+		}
+		Kernels.mirrorUpper(out);
+		return out;
+	}
+	
+	/**
+	 * Writes the data matrix entries starting at row r0 and column i0, less the mean of their
+	 * column, into every entry of out. out is always in double precision, so single precision
+	 * data is widened as it is centered.
+	 */
+	private void centerInto(int r0, int i0, DenseMatrix out, double[] means) {
+		int rows = out.rows;
+		for(int c = 0; c < out.cols; c++) {
+			int i = i0 + c;
+			if(matrix.hasContiguousColumns()) {
+				VectorKernels.ACTIVE.subtract(matrix.array(), (int) matrix.index(r0, i), means[i],
+						out.array(), (int) out.index(0, c), rows);
+				continue;
+			}
+			if(matrix.hasContiguousFloatColumns()) {
+				VectorKernels.ACTIVE.subtract(matrix.floatArray(), (int) matrix.index(r0, i),
+						means[i], out.array(), (int) out.index(0, c), rows);
+				continue;
+			}
+			for(int j = 0; j < rows; j++) {
+				out.set(j, c, matrix.get(r0 + j, i) - means[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the mean of every column of the data matrix in one pass over each column.
+	 * @return	means[i] is the mean of the ith variable
+	 */
+	double[] columnMeans() {
+		double[] means = new double[matrix.cols];
+		for(int i = 0; i < means.length; i++) {
+			double sum = 0;
+			if(matrix.hasContiguousColumns()) {
+				sum = VectorKernels.ACTIVE.sum(matrix.array(), (int) matrix.index(0, i), matrix.rows);
+			} else if(matrix.hasContiguousFloatColumns()) {
+				sum = VectorKernels.ACTIVE.sum(matrix.floatArray(), (int) matrix.index(0, i),
+						matrix.rows);
+			} else {
+				for(int j = 0; j < matrix.rows; j++) {
+					sum += matrix.get(j, i);
+				}
+			}
+			means[i] = sum/matrix.rows;
+		}
+		return means;
+	}
+	
 	/**
 	 * Returns the covariance of two data vectors.
 	 * @param a	double[] of data
@@ -194,20 +744,37 @@ class Data {
 			throw new MatrixException("Cannot take covariance of different dimension vectors.");
 		}
 		double divisor = a.length - 1;
-		double sum = 0;
-		double aMean = mean(a);
-		double bMean = mean(b);
-		for(int i = 0; i < a.length; i++) {
-			sum += (a[i] - aMean) * (b[i] - bMean);
-		}
-		return sum/divisor;
+		return VectorKernels.ACTIVE.centeredDot(a, mean(a), b, mean(b), a.length)/divisor;
 	}
 	
 	/**
-	 * Centers each column of the data matrix at its mean.
+	 * Centers each column of the data matrix at its mean. The matrix is updated in place; a
+	 * read-only matrix is first copied to the heap.
+	 * @return	the mean of each variable before centering
 	 */
-	void center() {
-		matrix = normalize(matrix);
+	double[] center() {
+		if(matrix.isReadOnly()) {
+			matrix = matrix.copy();
+		}
+		double[] means = columnMeans();
+		for(int i = 0; i < matrix.cols; i++) {
+			if(matrix.hasContiguousColumns()) {
+				int c = (int) matrix.index(0, i);
+				VectorKernels.ACTIVE.subtract(matrix.array(), c, means[i], matrix.array(), c,
+						matrix.rows);
+				continue;
+			}
+			if(matrix.hasContiguousFloatColumns()) {
+				int c = (int) matrix.index(0, i);
+				float[] v = matrix.floatArray();
+				VectorKernels.ACTIVE.subtract(v, c, means[i], v, c, matrix.rows);
+				continue;
+			}
+			for(int j = 0; j < matrix.rows; j++) {
+				matrix.set(j, i, matrix.get(j, i) - means[i]);
+			}
+		}
+		return means;
 	}
 	
 	
@@ -217,10 +784,7 @@ class Data {
 	double[][] normalize(double[][] input) {
 		double[][] out = new double[input.length][input[0].length];
 		for(int i = 0; i < input.length; i++) {
-			double mean = mean(input[i]);
-			for(int j = 0; j < input[i].length; j++) {
-				out[i][j] = input[i][j] - mean;
-			}
+			VectorKernels.ACTIVE.subtract(input[i], 0, mean(input[i]), out[i], 0, input[i].length);
 		}
 		return out;
 	}
@@ -230,10 +794,6 @@ class Data {
 	 * @param entries	input array of doubles
 	 */
 	static double mean(double[] entries) {
-		double out = 0;
-		for(double d: entries) {
-			out += d/entries.length;
-		}
-		return out;
+		return VectorKernels.ACTIVE.sum(entries, 0, entries.length)/entries.length;
 	}
 }
@@ -0,0 +1,416 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Matrix of doubles held in one contiguous block of storage, either a heap double[] or a set of
+ * off-heap DoubleBuffers. Entry (row, col) lives at offset + row*rowStride + col*colStride, so
+ * transposes, column slices and submatrices are views over the same storage rather than copies.
+ * New matrices are column-major, matching the double[][] convention used by Matrix.
+ *
+ * A matrix may instead be stored in single precision, in a heap float[] or off-heap
+ * FloatBuffers, which halves its memory and the bytes every pass over it reads. Entries are
+ * still read and written as doubles: get widens exactly, and set rounds to the nearest float.
+ * Kernels that have a fast path for contiguous double columns have one for contiguous float
+ * columns too, and they accumulate in double.
+ */
+final class DenseMatrix {
+
+	static final int CHUNK_SHIFT = 27; //Off-heap storage is split into chunks of 2^27 doubles
+	static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+	static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	final int rows;
+	final int cols;
+	final long offset;
+	final long rowStride;
+	final long colStride;
+	//Exactly one of the four stores is not null
+	private final double[] heap;
+	private final DoubleBuffer[] chunks;
+	private final float[] floatHeap;
+	private final FloatBuffer[] floatChunks;
+
+	private DenseMatrix(int rows, int cols, long offset, long rowStride, long colStride,
+			double[] heap, DoubleBuffer[] chunks, float[] floatHeap, FloatBuffer[] floatChunks) {
+		this.rows = rows;
+		this.cols = cols;
+		this.offset = offset;
+		this.rowStride = rowStride;
+		this.colStride = colStride;
+		this.heap = heap;
+		this.chunks = chunks;
+		this.floatHeap = floatHeap;
+		this.floatChunks = floatChunks;
+	}
+
+	/**
+	 * Returns a matrix with the given layout over the same storage as this one.
+	 */
+	private DenseMatrix view(int numRows, int numCols, long start, long newRowStride,
+			long newColStride) {
+		return new DenseMatrix(numRows, numCols, start, newRowStride, newColStride, heap, chunks,
+				floatHeap, floatChunks);
+	}
+
+	/**
+	 * Returns a new rows x cols column-major matrix of zeros on the heap.
+	 */
+	static DenseMatrix zeros(int rows, int cols) {
+		long size = (long) rows * cols;
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new MatrixException("Matrix of " + size + " entries too large for the heap; "
+					+ "use DenseMatrix.offHeap.");
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, new double[(int) size], null, null, null);
+	}
+
+	/**
+	 * Returns a new rows x cols column-major matrix of zeros on the heap, in single precision.
+	 */
+	static DenseMatrix floatZeros(int rows, int cols) {
+		long size = (long) rows * cols;
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new MatrixException("Matrix of " + size + " entries too large for the heap; "
+					+ "use DenseMatrix.floatOffHeap.");
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, null, null, new float[(int) size], null);
+	}
+
+	/**
+	 * Returns a new rows x cols column-major matrix of zeros stored outside the Java heap.
+	 */
+	static DenseMatrix offHeap(int rows, int cols) {
+		long size = (long) rows * cols;
+		DoubleBuffer[] chunks = new DoubleBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for(int c = 0; c < chunks.length; c++) {
+			long length = Math.min(CHUNK_SIZE, size - ((long) c << CHUNK_SHIFT));
+			chunks[c] = ByteBuffer.allocateDirect((int) (length * Double.BYTES))
+					.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, null, chunks, null, null);
+	}
+
+	/**
+	 * Returns a new rows x cols column-major matrix of zeros stored outside the Java heap, in
+	 * single precision.
+	 */
+	static DenseMatrix floatOffHeap(int rows, int cols) {
+		long size = (long) rows * cols;
+		FloatBuffer[] chunks = new FloatBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for(int c = 0; c < chunks.length; c++) {
+			long length = Math.min(CHUNK_SIZE, size - ((long) c << CHUNK_SHIFT));
+			chunks[c] = ByteBuffer.allocateDirect((int) (length * Float.BYTES))
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, null, null, null, chunks);
+	}
+
+	/**
+	 * Returns a new rows x cols column-major matrix of zeros, on the heap if it fits in one
+	 * array and off-heap otherwise.
+	 * @param single	true to store the entries in single precision
+	 */
+	static DenseMatrix allocate(int rows, int cols, boolean single) {
+		boolean large = (long) rows * cols > Integer.MAX_VALUE - 8;
+		if(single) {
+			return large ? floatOffHeap(rows, cols) : floatZeros(rows, cols);
+		}
+		return large ? offHeap(rows, cols) : zeros(rows, cols);
+	}
+
+	/**
+	 * Wraps an existing column-major array without copying it.
+	 * @param data	column-major entries; data[row + col*rows] is entry (row, col)
+	 * @param rows	number of rows
+	 * @param cols	number of columns
+	 */
+	static DenseMatrix wrap(double[] data, int rows, int cols) {
+		if((long) rows * cols > data.length) {
+			throw new MatrixException("Array too short for a " + rows + "x" + cols + " matrix.");
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, data, null, null, null);
+	}
+
+	/**
+	 * Wraps an existing column-major array of single precision entries without copying it.
+	 * @param data	column-major entries; data[row + col*rows] is entry (row, col)
+	 * @param rows	number of rows
+	 * @param cols	number of columns
+	 */
+	static DenseMatrix wrap(float[] data, int rows, int cols) {
+		if((long) rows * cols > data.length) {
+			throw new MatrixException("Array too short for a " + rows + "x" + cols + " matrix.");
+		}
+		return new DenseMatrix(rows, cols, 0, 1, rows, null, null, data, null);
+	}
+
+	/**
+	 * Wraps a set of DoubleBuffers, each except the last holding exactly CHUNK_SIZE doubles, as
+	 * a matrix with the given layout. Used for memory-mapped and other off-heap storage.
+	 */
+	static DenseMatrix wrap(DoubleBuffer[] chunks, int rows, int cols, long rowStride,
+			long colStride) {
+		return new DenseMatrix(rows, cols, 0, rowStride, colStride, null, chunks, null, null);
+	}
+
+	/**
+	 * Wraps a set of FloatBuffers, each except the last holding exactly CHUNK_SIZE floats, as a
+	 * single precision matrix with the given layout.
+	 */
+	static DenseMatrix wrap(FloatBuffer[] chunks, int rows, int cols, long rowStride,
+			long colStride) {
+		return new DenseMatrix(rows, cols, 0, rowStride, colStride, null, null, null, chunks);
+	}
+
+	/**
+	 * Copies a double[][] in the Matrix convention (input[i] is the ith column) into a new
+	 * contiguous column-major matrix.
+	 */
+	static DenseMatrix fromColumns(double[][] input) {
+		int rows = input.length == 0 ? 0 : input[0].length;
+		DenseMatrix out = zeros(rows, input.length);
+		for(int j = 0; j < input.length; j++) {
+			System.arraycopy(input[j], 0, out.heap, j * rows, rows);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 */
+	int rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of columns.
+	 */
+	int cols() {
+		return cols;
+	}
+
+	/**
+	 * Returns the storage index of entry (row, col).
+	 */
+	long index(int row, int col) {
+		return offset + row * rowStride + col * colStride;
+	}
+
+	/**
+	 * Returns entry (row, col).
+	 */
+	double get(int row, int col) {
+		long i = index(row, col);
+		if(heap != null) {
+			return heap[(int) i];
+		}
+		if(floatHeap != null) {
+			return floatHeap[(int) i];
+		}
+		if(chunks != null) {
+			return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+		}
+		return floatChunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+	}
+
+	/**
+	 * Sets entry (row, col) to value.
+	 */
+	void set(int row, int col, double value) {
+		long i = index(row, col);
+		if(heap != null) {
+			heap[(int) i] = value;
+		} else if(floatHeap != null) {
+			floatHeap[(int) i] = (float) value;
+		} else if(chunks != null) {
+			chunks[(int) (i >>> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+		} else {
+			floatChunks[(int) (i >>> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), (float) value);
+		}
+	}
+
+	/**
+	 * Adds value to entry (row, col).
+	 */
+	void add(int row, int col, double value) {
+		set(row, col, get(row, col) + value);
+	}
+
+	/**
+	 * Returns the heap array backing this matrix, or null if it is stored off-heap or in single
+	 * precision.
+	 */
+	double[] array() {
+		return heap;
+	}
+
+	/**
+	 * Returns the heap array backing this single precision matrix, or null if it is stored
+	 * off-heap or in double precision.
+	 */
+	float[] floatArray() {
+		return floatHeap;
+	}
+
+	/**
+	 * Returns true if the entries are stored as floats.
+	 */
+	boolean isSinglePrecision() {
+		return floatHeap != null || floatChunks != null;
+	}
+
+	/**
+	 * Returns the number of bytes that store one entry.
+	 */
+	int entryBytes() {
+		return isSinglePrecision() ? Float.BYTES : Double.BYTES;
+	}
+
+	/**
+	 * Returns true if the matrix is on the heap in double precision and each column occupies
+	 * consecutive entries of array(), so column col starts at index(0, col).
+	 */
+	boolean hasContiguousColumns() {
+		return heap != null && (rowStride == 1 || rows <= 1);
+	}
+
+	/**
+	 * Returns true if the matrix is on the heap in single precision and each column occupies
+	 * consecutive entries of floatArray(), so column col starts at index(0, col).
+	 */
+	boolean hasContiguousFloatColumns() {
+		return floatHeap != null && (rowStride == 1 || rows <= 1);
+	}
+
+	/**
+	 * Returns true if writes to this matrix are not allowed, as for read-only mapped files.
+	 */
+	boolean isReadOnly() {
+		if(floatChunks != null) {
+			return floatChunks.length > 0 && floatChunks[0].isReadOnly();
+		}
+		return chunks != null && chunks.length > 0 && chunks[0].isReadOnly();
+	}
+
+	/**
+	 * Returns the transpose of this matrix as a view over the same storage.
+	 */
+	DenseMatrix transpose() {
+		return view(cols, rows, offset, colStride, rowStride);
+	}
+
+	/**
+	 * Returns the column with index col as a rows x 1 view.
+	 */
+	DenseMatrix column(int col) {
+		return columns(col, col + 1);
+	}
+
+	/**
+	 * Returns columns [from, to) as a view.
+	 */
+	DenseMatrix columns(int from, int to) {
+		return submatrix(0, from, rows, to - from);
+	}
+
+	/**
+	 * Returns the numRows x numCols block whose top-left entry is (row, col) as a view.
+	 */
+	DenseMatrix submatrix(int row, int col, int numRows, int numCols) {
+		if(row < 0 || col < 0 || numRows < 0 || numCols < 0 || row + numRows > rows
+				|| col + numCols > cols) {
+			throw new MatrixException("Submatrix out of bounds.");
+		}
+		return view(numRows, numCols, index(row, col), rowStride, colStride);
+	}
+
+	/**
+	 * Returns a compact column-major copy of this matrix on the heap, in the same precision.
+	 */
+	DenseMatrix copy() {
+		DenseMatrix out = isSinglePrecision() ? floatZeros(rows, cols) : zeros(rows, cols);
+		copyInto(out);
+		return out;
+	}
+
+	/**
+	 * Returns this matrix if it is stored in single precision, or else a compact column-major
+	 * copy rounded to single precision, on the heap if it fits in one array and off-heap
+	 * otherwise.
+	 */
+	DenseMatrix toSinglePrecision() {
+		if(isSinglePrecision()) {
+			return this;
+		}
+		DenseMatrix out = allocate(rows, cols, true);
+		copyInto(out);
+		return out;
+	}
+
+	/**
+	 * Copies the entries of this matrix into target, which must have the same dimensions.
+	 */
+	void copyInto(DenseMatrix target) {
+		if(target.rows != rows || target.cols != cols) {
+			throw new MatrixException("Matrices not same size.");
+		}
+		if(hasContiguousColumns() && target.hasContiguousColumns()) {
+			for(int j = 0; j < cols; j++) {
+				System.arraycopy(heap, (int) index(0, j), target.heap, (int) target.index(0, j), rows);
+			}
+			return;
+		}
+		if(hasContiguousFloatColumns() && target.hasContiguousFloatColumns()) {
+			for(int j = 0; j < cols; j++) {
+				System.arraycopy(floatHeap, (int) index(0, j), target.floatHeap,
+						(int) target.index(0, j), rows);
+			}
+			return;
+		}
+		for(int j = 0; j < cols; j++) {
+			for(int i = 0; i < rows; i++) {
+				target.set(i, j, get(i, j));
+			}
+		}
+	}
+
+	/**
+	 * Copies column col into a new array.
+	 */
+	double[] columnToArray(int col) {
+		return columnToArray(col, new double[rows]);
+	}
+
+	/**
+	 * Copies column col into out, which must have length rows, and returns out.
+	 */
+	double[] columnToArray(int col, double[] out) {
+		if(hasContiguousColumns()) {
+			System.arraycopy(heap, (int) index(0, col), out, 0, rows);
+		} else if(hasContiguousFloatColumns()) {
+			int c = (int) index(0, col);
+			for(int i = 0; i < rows; i++) {
+				out[i] = floatHeap[c + i];
+			}
+		} else {
+			for(int i = 0; i < rows; i++) {
+				out[i] = get(i, col);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Copies this matrix into a double[][] in the Matrix convention, where out[i] is the ith
+	 * column.
+	 */
+	double[][] toColumns() {
+		double[][] out = new double[cols][];
+		for(int j = 0; j < cols; j++) {
+			out[j] = columnToArray(j);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,10 @@
+/**
+ * Data holder class that contains a set of eigenvalues and their corresponding eigenvectors.
+ * @author	Kushal Ranjan
+ * @version 051413
+ */
+class EigenSet {
+	double[] values;
+	double[][] vectors;
+	boolean fromGramMatrix; //True if found through the Gram matrix (Data.gramEigenSet)
+}
\ No newline at end of file
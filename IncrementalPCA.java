@@ -0,0 +1,312 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A PCA model that absorbs new data points without revisiting old ones, by incremental SVD
+ * (Ross, Lim, Lin and Yang). The model keeps the number of points seen, the mean of each
+ * variable, and a rank-k factorization of the centered data: singular values s and orthonormal
+ * components V, so that the data seen so far is approximated by U diag(s) (V^T).
+ *
+ * A block of m new points is absorbed by taking the SVD of the (k + m + 1) x p matrix made of
+ * diag(s)(V^T), the new points centered at their own mean, and one row that accounts for the
+ * shift of the mean. The cost of an update depends on k, p and m but not on the number of points
+ * seen before. The state can be saved to a checkpoint file and loaded in a later run.
+ *
+ * The same state is a mergeable low-rank sketch of a data set: two models built over disjoint
+ * points are combined by merge, with the SVD of diag(s)(V^T) of each and the same mean-shift
+ * row. The merge is exact as long as that stacked matrix has rank at most k. Otherwise it keeps
+ * the leading k directions, so the sketch stays p x k however many points and shards it covers.
+ * ShardedPCA uses it for data with too many variables for a p x p covariance matrix.
+ */
+class IncrementalPCA {
+
+	static final int MAGIC = 0x49414350; //"PCAI" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int UPDATE_ROWS = 512; //Points absorbed per SVD, which bounds its size
+
+	final int numVariables;
+	final int numComponents;
+	private long count = 0;
+	private final double[] means;
+	private double[] singularValues = new double[0]; //Decreasing; fewer than numComponents at first
+	private DenseMatrix components; //numVariables x singularValues.length
+
+	/**
+	 * Constructs an empty model.
+	 * @param numVariables	number of variables of each data point
+	 * @param numComponents	number of principal components to keep
+	 */
+	IncrementalPCA(int numVariables, int numComponents) {
+		if(numComponents < 1 || numComponents > numVariables) {
+			throw new MatrixException("Cannot keep " + numComponents + " components of "
+					+ numVariables + " variables.");
+		}
+		this.numVariables = numVariables;
+		this.numComponents = numComponents;
+		this.means = new double[numVariables];
+		this.components = DenseMatrix.zeros(numVariables, 0);
+	}
+
+	/**
+	 * Returns the number of data points absorbed so far.
+	 */
+	long count() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of each variable over every data point absorbed so far.
+	 */
+	double[] means() {
+		return means.clone();
+	}
+
+	/**
+	 * Returns the current principal components as the columns of a numVariables x r matrix,
+	 * where r is numComponents once enough points have been seen.
+	 */
+	DenseMatrix components() {
+		return components.copy();
+	}
+
+	/**
+	 * Returns the variance explained by each current component.
+	 */
+	double[] explainedVariance() {
+		double[] out = new double[singularValues.length];
+		for(int c = 0; c < out.length; c++) {
+			out[c] = singularValues[c] * singularValues[c]/(count - 1);
+		}
+		return out;
+	}
+
+	/**
+	 * Absorbs a block of data points.
+	 * @param rows	new data; each row is a data point with numVariables columns
+	 */
+	void update(DenseMatrix rows) {
+		if(rows.cols != numVariables) {
+			throw new MatrixException("Expected " + numVariables + " variables per point.");
+		}
+		for(int r0 = 0; r0 < rows.rows; r0 += UPDATE_ROWS) {
+			updateBlock(rows.submatrix(r0, 0, Math.min(UPDATE_ROWS, rows.rows - r0), numVariables));
+		}
+	}
+
+	/**
+	 * Absorbs at most UPDATE_ROWS data points with one SVD.
+	 */
+	private void updateBlock(DenseMatrix block) {
+		int m = block.rows;
+		int p = numVariables;
+		int rank = singularValues.length;
+		double[] blockMeans = new double[p];
+		for(int i = 0; i < p; i++) {
+			double sum = 0;
+			for(int j = 0; j < m; j++) {
+				sum += block.get(j, i);
+			}
+			blockMeans[i] = sum/m;
+		}
+		long total = count + m;
+		int rows = rank + m + (count > 0 ? 1 : 0);
+		DenseMatrix M = DenseMatrix.zeros(rows, p);
+		for(int i = 0; i < p; i++) {
+			for(int c = 0; c < rank; c++) {
+				M.set(c, i, singularValues[c] * components.get(i, c));
+			}
+			for(int j = 0; j < m; j++) {
+				M.set(rank + j, i, block.get(j, i) - blockMeans[i]);
+			}
+			if(count > 0) {
+				//Between-block term: the old points, centered at the new mean, gain this offset
+				M.set(rows - 1, i, Math.sqrt((double) count * m/total) * (blockMeans[i] - means[i]));
+			}
+			means[i] += (blockMeans[i] - means[i]) * m/total;
+		}
+		count = total;
+		factor(M);
+	}
+
+	/**
+	 * Adds every data point summarized by other, a model over the same variables and disjoint
+	 * data points, to this model.
+	 */
+	void merge(IncrementalPCA other) {
+		if(other.numVariables != numVariables) {
+			throw new MatrixException("Cannot merge models over different numbers of variables.");
+		}
+		if(other.count == 0) {
+			return;
+		}
+		int p = numVariables;
+		int rank = singularValues.length;
+		int otherRank = other.singularValues.length;
+		long total = count + other.count;
+		int rows = rank + otherRank + 1;
+		DenseMatrix M = DenseMatrix.zeros(rows, p);
+		double between = Math.sqrt((double) count * other.count/total);
+		for(int i = 0; i < p; i++) {
+			for(int c = 0; c < rank; c++) {
+				M.set(c, i, singularValues[c] * components.get(i, c));
+			}
+			for(int c = 0; c < otherRank; c++) {
+				M.set(rank + c, i, other.singularValues[c] * other.components.get(i, c));
+			}
+			M.set(rows - 1, i, between * (other.means[i] - means[i]));
+			means[i] += (other.means[i] - means[i]) * other.count/total;
+		}
+		count = total;
+		factor(M);
+	}
+
+	/**
+	 * Replaces the singular values and components with the leading ones of M, whose rows
+	 * summarize the centered data points seen so far: (M^T)M is their scatter matrix. M is
+	 * factored by JacobiSVD rather than through a Gram matrix, whose squared singular values
+	 * would leave the small ones at the rounding level. Directions whose singular value is not
+	 * above that level, s[0] max(rows, p) ulp(1), are rank deficiency rather than data and are
+	 * dropped.
+	 */
+	private void factor(DenseMatrix M) {
+		int p = numVariables;
+		SVDSet svd = JacobiSVD.decompose(M);
+		int keep = Math.min(numComponents, svd.values.length);
+		double cutoff = keep > 0 ? svd.values[0] * Math.max(M.rows, p) * Math.ulp(1.0) : 0;
+		//Drop directions with no variance, and fix each sign so that updates do not flip it
+		int nonzero = 0;
+		while(nonzero < keep && svd.values[nonzero] > cutoff) {
+			nonzero++;
+		}
+		DenseMatrix V = svd.V;
+		for(int c = 0; c < nonzero; c++) {
+			int largest = 0;
+			for(int i = 1; i < p; i++) {
+				if(Math.abs(V.get(i, c)) > Math.abs(V.get(largest, c))) {
+					largest = i;
+				}
+			}
+			if(V.get(largest, c) < 0) {
+				for(int i = 0; i < p; i++) {
+					V.set(i, c, -V.get(i, c));
+				}
+			}
+		}
+		singularValues = java.util.Arrays.copyOf(svd.values, nonzero);
+		components = V.columns(0, nonzero).copy();
+	}
+
+	/**
+	 * Absorbs every data point in a text data file, reading it a block of rows at a time.
+	 * @param filename	the name of the file containing the data
+	 * @param chunkRows	number of rows held in memory at a time
+	 * @throws IOException	if an error occurs while reading the file
+	 */
+	void update(String filename, int chunkRows) throws IOException {
+		try(ChunkedDataReader in = new ChunkedDataReader(filename)) {
+			if(in.cols != numVariables) {
+				throw new IOException(filename + " has " + in.cols + " columns; the model has "
+						+ numVariables + " variables.");
+			}
+			DenseMatrix buffer = DenseMatrix.zeros(Math.max(1, Math.min(chunkRows, in.rows)), in.cols);
+			for(DenseMatrix block = in.next(buffer); block != null; block = in.next(buffer)) {
+				update(block);
+			}
+		}
+	}
+
+	/**
+	 * Returns the current means, components and explained variances as a PCAModel, which can
+	 * score data without this model's update state.
+	 */
+	PCAModel model() {
+		return new PCAModel(means, components, explainedVariance());
+	}
+
+	/**
+	 * Saves the state of the model. An interrupted save never replaces a good checkpoint with a
+	 * partial one.
+	 * @param filename	the name of the checkpoint file
+	 * @throws IOException	if the file cannot be written or the model is too large for one file
+	 */
+	void save(String filename) throws IOException {
+		int rank = singularValues.length;
+		if(fileBytes(numVariables, rank) > Integer.MAX_VALUE) {
+			throw new IOException("A model of " + numVariables + " variables and " + rank
+					+ " components is too large to save.");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int) fileBytes(numVariables, rank))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(numVariables).putInt(numComponents);
+		buf.putLong(count).putInt(rank).putInt(0);
+		for(double mean: means) {
+			buf.putDouble(mean);
+		}
+		for(double value: singularValues) {
+			buf.putDouble(value);
+		}
+		for(int c = 0; c < rank; c++) {
+			for(int i = 0; i < numVariables; i++) {
+				buf.putDouble(components.get(i, c));
+			}
+		}
+		buf.flip();
+		BinaryMatrixFile.writeAtomically(filename, buf);
+	}
+
+	/**
+	 * Returns the size in bytes of the checkpoint of a model of numVariables variables and rank
+	 * components.
+	 */
+	static long fileBytes(int numVariables, int rank) {
+		return HEADER_BYTES + ((long) numVariables + rank + (long) numVariables * rank)
+				* Double.BYTES;
+	}
+
+	/**
+	 * Loads a model saved by save.
+	 * @param filename	the name of the checkpoint file
+	 * @return			the model
+	 * @throws IOException	if the file cannot be read or is not a checkpoint
+	 */
+	static IncrementalPCA load(String filename) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		if(buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+			throw new IOException(filename + " is not an incremental PCA checkpoint.");
+		}
+		if(buf.getInt() != VERSION) {
+			throw new IOException("Unsupported checkpoint version " + buf.getInt(4));
+		}
+		int numVariables = buf.getInt();
+		int numComponents = buf.getInt();
+		long count = buf.getLong();
+		int rank = buf.getInt();
+		buf.getInt();
+		if(numVariables < 1 || numComponents < 1 || numComponents > numVariables || count < 0
+				|| rank < 0 || rank > numComponents
+				|| buf.capacity() != fileBytes(numVariables, rank)) {
+			throw new IOException("Malformed checkpoint " + filename);
+		}
+		IncrementalPCA model = new IncrementalPCA(numVariables, numComponents);
+		model.count = count;
+		for(int i = 0; i < numVariables; i++) {
+			model.means[i] = buf.getDouble();
+		}
+		model.singularValues = new double[rank];
+		for(int c = 0; c < rank; c++) {
+			model.singularValues[c] = buf.getDouble();
+		}
+		model.components = DenseMatrix.zeros(numVariables, rank);
+		for(int c = 0; c < rank; c++) {
+			for(int i = 0; i < numVariables; i++) {
+				model.components.set(i, c, buf.getDouble());
+			}
+		}
+		return model;
+	}
+}
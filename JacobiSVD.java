@@ -0,0 +1,259 @@
+/**
+ * Thin singular value decomposition by the one-sided Jacobi method (Hestenes). The columns of a
+ * copy of the matrix are rotated in pairs until every pair is orthogonal; the rotations,
+ * accumulated into V, make AV = US, so the singular values are the lengths of the columns and U
+ * is the columns divided by their lengths. The method works on the matrix itself rather than on
+ * (A^T)A, so it does not square the condition number, and small singular values are found to
+ * high relative accuracy. The matrix is first factored as QR by Householder reflections and the
+ * rotations are applied to the n x n factor R, whose SVD U'S(V^T) gives U = QU' (the QR
+ * preconditioning of Drmac and Veselic), so a tall matrix is rotated on columns of length n
+ * instead of m.
+ *
+ * Each sweep visits every pair of columns once in round-robin (tournament) order: the columns
+ * are split into n/2 disjoint pairs, every pair is rotated, and all but the first column move
+ * one place before the next round. Pairs in a round touch different columns, so they are
+ * rotated in parallel, and every rotation is computed with the same operations whatever the
+ * number of threads, so results do not depend on it. A pair is rotated unless the cosine of the
+ * angle between its columns is at most n * TOLERANCE, where n is the number of rows of R; the
+ * method stops after a sweep without rotations, or after MAX_SWEEPS. Wide matrices are
+ * decomposed through their transpose, so the work is on min(m, n) columns.
+ */
+class JacobiSVD {
+
+	static final int MAX_SWEEPS = 60; //Convergence is quadratic; well under 20 sweeps are usual
+	static final double TOLERANCE = Math.ulp(1.0); //Times the rows and the column lengths
+
+	private JacobiSVD() {
+	}
+
+	/**
+	 * Computes the thin SVD of input.
+	 * @param input	m x n matrix
+	 * @return		an SVDSet with U (m x r), the r = min(m, n) singular values in decreasing
+	 * 				order and V (n x r), such that input = U diag(values) (V^T). The columns of
+	 * 				U and V are orthonormal, also for rank-deficient input.
+	 */
+	static SVDSet decompose(DenseMatrix input) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.SVD);
+		boolean wide = input.rows < input.cols;
+		DenseMatrix source = wide ? input.transpose() : input;
+		int m = source.rows;
+		int n = source.cols;
+		DenseMatrix Q = DenseMatrix.zeros(m, n);
+		source.copyInto(Q);
+		DenseMatrix R = householder(Q);
+		DenseMatrix V = DenseMatrix.zeros(n, n);
+		for(int i = 0; i < n; i++) {
+			V.set(i, i, 1);
+		}
+		long rotations = sweep(R, V);
+		double[] lengths = new double[n];
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			lengths[i] = Math.sqrt(VectorKernels.ACTIVE.dot(R.array(), (int) R.index(0, i),
+					R.array(), (int) R.index(0, i), n));
+			order[i] = i;
+		}
+		java.util.Arrays.sort(order, (a, b) -> Double.compare(lengths[b], lengths[a]));
+		SVDSet out = new SVDSet();
+		out.values = new double[n];
+		DenseMatrix UR = DenseMatrix.zeros(n, n); //Left singular vectors of R
+		DenseMatrix W = DenseMatrix.zeros(n, n);
+		for(int c = 0; c < n; c++) {
+			int i = order[c];
+			out.values[c] = lengths[i];
+			if(lengths[i] > 0) {
+				VectorKernels.ACTIVE.scale(1/lengths[i], R.array(), (int) R.index(0, i),
+						UR.array(), (int) UR.index(0, c), n);
+			}
+			V.columns(i, i + 1).copyInto(W.columns(c, c + 1));
+		}
+		completeBasis(UR, out.values);
+		DenseMatrix U = Matrix.multiply(Q, UR);
+		out.U = wide ? W : U;
+		out.V = wide ? U : W;
+		long mn = (long) m * n;
+		Metrics.stop(timer, 8 * mn * n + rotations * 12L * n, 8 * (4 * mn + 4L * n * n));
+		return out;
+	}
+
+	/**
+	 * Factors the m x n matrix a (m >= n) as QR by Householder reflections, and overwrites a
+	 * with the m x n matrix Q of orthonormal columns.
+	 * @param a	matrix with contiguous columns; replaced by Q
+	 * @return	the n x n upper triangular R
+	 */
+	private static DenseMatrix householder(DenseMatrix a) {
+		VectorKernels kernels = VectorKernels.ACTIVE;
+		int m = a.rows;
+		int n = a.cols;
+		double[] x = a.array();
+		double[] tau = new double[n];
+		DenseMatrix R = DenseMatrix.zeros(n, n);
+		for(int k = 0; k < n; k++) {
+			//Reflector I - tau v(v^T) maps a[k...m, k] onto -sign(a[k, k])|a[k...m, k]| e1;
+			//v is left in place of the column, below the row of R
+			int ck = (int) a.index(k, k);
+			int length = m - k;
+			double norm = Math.sqrt(kernels.dot(x, ck, x, ck, length));
+			double diagonal = x[ck] > 0 ? -norm : norm;
+			R.set(k, k, diagonal);
+			if(norm == 0) {
+				continue;
+			}
+			x[ck] -= diagonal;
+			tau[k] = 1/(-diagonal * x[ck]); //2/(v^T)v, since (v^T)v = 2 norm |v0|
+			final int col = k;
+			Parallel.forRange(n - k - 1, 2L * length, (from, to) -> {
+				for(int j = col + 1 + from; j < col + 1 + to; j++) {
+					int cj = (int) a.index(col, j);
+					kernels.axpy(-tau[col] * kernels.dot(x, ck, x, cj, length), x, ck, x, cj,
+							length);
+				}
+			});
+			for(int j = k + 1; j < n; j++) {
+				R.set(k, j, a.get(k, j));
+			}
+		}
+		//Q = H0 H1 ... H(n-1) times the first n columns of the identity, applied from the last
+		DenseMatrix Q = DenseMatrix.zeros(m, n);
+		for(int i = 0; i < n; i++) {
+			Q.set(i, i, 1);
+		}
+		double[] q = Q.array();
+		for(int k = n - 1; k >= 0; k--) {
+			if(tau[k] == 0) {
+				continue;
+			}
+			final int col = k;
+			int ck = (int) a.index(k, k);
+			int length = m - k;
+			Parallel.forRange(n - k, 2L * length, (from, to) -> {
+				for(int j = col + from; j < col + to; j++) {
+					int cj = (int) Q.index(col, j);
+					kernels.axpy(-tau[col] * kernels.dot(x, ck, q, cj, length), x, ck, q, cj,
+							length);
+				}
+			});
+		}
+		Q.copyInto(a);
+		return R;
+	}
+
+	/**
+	 * Rotates pairs of columns of A, and the same pairs of V, until all columns of A are
+	 * orthogonal.
+	 * @return	the number of rotations applied
+	 */
+	private static long sweep(DenseMatrix A, DenseMatrix V) {
+		int n = A.cols;
+		int slots = n + (n & 1); //An odd column count gets a dummy slot, n, that is never rotated
+		int[] slot = new int[slots];
+		for(int k = 0; k < slots; k++) {
+			slot[k] = k;
+		}
+		boolean[] rotated = new boolean[slots / 2];
+		double[] norms = new double[n]; //Squared column lengths, updated by each rotation
+		long rotations = 0;
+		for(int s = 0; s < MAX_SWEEPS; s++) {
+			long before = rotations;
+			for(int i = 0; i < n; i++) {
+				//Recomputed every sweep, so that rounding in the updates does not accumulate
+				norms[i] = VectorKernels.ACTIVE.dot(A.array(), (int) A.index(0, i), A.array(),
+						(int) A.index(0, i), A.rows);
+			}
+			for(int round = 0; round < slots - 1; round++) {
+				java.util.Arrays.fill(rotated, false);
+				Parallel.forRange(slots / 2, 12L * A.rows, (from, to) -> {
+					for(int k = from; k < to; k++) {
+						int i = Math.min(slot[k], slot[slots - 1 - k]);
+						int j = Math.max(slot[k], slot[slots - 1 - k]);
+						rotated[k] = j < n && rotate(A, V, norms, i, j);
+					}
+				});
+				for(boolean r: rotated) {
+					rotations += r ? 1 : 0;
+				}
+				//Round-robin: keep slot 0 and move every other column one place
+				int last = slot[slots - 1];
+				System.arraycopy(slot, 1, slot, 2, slots - 2);
+				if(slots > 1) {
+					slot[1] = last;
+				}
+			}
+			if(rotations == before) {
+				break;
+			}
+		}
+		return rotations;
+	}
+
+	/**
+	 * Rotates columns i and j of A so that they become orthogonal, and columns i and j of V by
+	 * the same rotation, unless they are orthogonal already. norms holds the squared lengths of
+	 * the columns of A, and is updated for the rotation without another pass over the columns.
+	 * @return	true if a rotation was applied
+	 */
+	private static boolean rotate(DenseMatrix A, DenseMatrix V, double[] norms, int i, int j) {
+		VectorKernels kernels = VectorKernels.ACTIVE;
+		double[] a = A.array();
+		int m = A.rows;
+		int ci = (int) A.index(0, i);
+		int cj = (int) A.index(0, j);
+		double alpha = norms[i];
+		double beta = norms[j];
+		double gamma = kernels.dot(a, ci, a, cj, m);
+		if(alpha == 0 || beta == 0
+				|| Math.abs(gamma) <= TOLERANCE * m * Math.sqrt(alpha * beta)) {
+			return false;
+		}
+		//The rotation with tangent t zeroes the off-diagonal entry of the 2 x 2 Gram matrix
+		double zeta = (beta - alpha)/(2 * gamma);
+		double t = (zeta >= 0 ? 1 : -1)/(Math.abs(zeta) + Math.hypot(1, zeta));
+		double c = 1/Math.sqrt(1 + t * t);
+		double s = c * t;
+		kernels.rotate(c, s, a, ci, a, cj, m);
+		norms[i] = Math.max(0, alpha - t * gamma);
+		norms[j] = beta + t * gamma;
+		kernels.rotate(c, s, V.array(), (int) V.index(0, i), V.array(), (int) V.index(0, j),
+				V.rows);
+		return true;
+	}
+
+	/**
+	 * Replaces the columns of U whose singular value is zero, which are zero, with unit vectors
+	 * orthogonal to every other column, so that U keeps orthonormal columns for rank-deficient
+	 * input. Each is built from the first coordinate vector that keeps a squared length of at
+	 * least 1/m after two passes of Gram-Schmidt against the other columns; one always does,
+	 * since the squared lengths left of all m coordinate vectors add up to at least 1.
+	 */
+	private static void completeBasis(DenseMatrix U, double[] values) {
+		VectorKernels kernels = VectorKernels.ACTIVE;
+		double[] u = U.array();
+		int m = U.rows;
+		int next = 0; //Next coordinate vector to try
+		for(int c = 0; c < U.cols; c++) {
+			if(values[c] > 0) {
+				continue;
+			}
+			int cc = (int) U.index(0, c);
+			while(true) {
+				java.util.Arrays.fill(u, cc, cc + m, 0);
+				u[cc + next++] = 1;
+				for(int pass = 0; pass < 2; pass++) {
+					for(int k = 0; k < U.cols; k++) {
+						int ck = (int) U.index(0, k);
+						if(k != c) {
+							kernels.axpy(-kernels.dot(u, ck, u, cc, m), u, ck, u, cc, m);
+						}
+					}
+				}
+				double norm = Math.sqrt(kernels.dot(u, cc, u, cc, m));
+				if(norm * norm * m >= 1) {
+					kernels.scale(1/norm, u, cc, u, cc, m);
+					break;
+				}
+			}
+		}
+	}
+}
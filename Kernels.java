@@ -0,0 +1,468 @@
+/**
+ * Low-level numeric kernels used by Matrix. Matrices follow the column-major convention of the
+ * rest of the project: m[i] is the ith column and m[i][j] is the entry in the jth row of that
+ * column.
+ */
+class Kernels {
+
+	static final int MR = 4; //Rows of A handled by one micro-kernel call
+	static final int NR = 4; //Columns of B handled by one micro-kernel call
+	static final int MC = 128; //Rows of A packed per panel
+	static final int KC = 256; //Depth of one packed panel
+	static final int NC = 1024; //Columns of B packed per panel
+
+	/**
+	 * Computes the product ab into out, which must already be sized [b.length][a[0].length] and
+	 * is overwritten. The product is computed block by block: panels of a and b are packed once
+	 * into contiguous buffers, and a 4x4 register-blocked micro-kernel (VectorKernels.microKernel)
+	 * runs over the packed panels, so no memory is allocated per output element.
+	 * @param a		m x k matrix, stored as k columns of length m
+	 * @param b		k x n matrix, stored as n columns of length k
+	 * @param out	m x n result matrix, stored as n columns of length m
+	 */
+	static void gemm(double[][] a, double[][] b, double[][] out) {
+		gemm(a, b, out, 0, b.length);
+	}
+
+	/**
+	 * Computes columns [colFrom, colTo) of the product ab into the same columns of out.
+	 * @param a			m x k matrix
+	 * @param b			k x n matrix
+	 * @param out		m x n result matrix
+	 * @param colFrom	first column of out to compute
+	 * @param colTo		one past the last column of out to compute
+	 */
+	static void gemm(double[][] a, double[][] b, double[][] out, int colFrom, int colTo) {
+		int m = out.length == 0 ? 0 : out[0].length;
+		int k = a.length;
+		for(int j = colFrom; j < colTo; j++) {
+			java.util.Arrays.fill(out[j], 0);
+		}
+		if(m == 0 || k == 0 || colTo <= colFrom) {
+			return;
+		}
+		double[] packedA = new double[roundUp(Math.min(MC, m), MR) * Math.min(KC, k)];
+		double[] packedB = new double[roundUp(Math.min(NC, colTo - colFrom), NR) * Math.min(KC, k)];
+		double[] tile = new double[MR * NR];
+		for(int jc = colFrom; jc < colTo; jc += NC) {
+			int nc = Math.min(NC, colTo - jc);
+			for(int pc = 0; pc < k; pc += KC) {
+				int kc = Math.min(KC, k - pc);
+				packB(b, pc, kc, jc, nc, packedB);
+				for(int ic = 0; ic < m; ic += MC) {
+					int mc = Math.min(MC, m - ic);
+					packA(a, ic, mc, pc, kc, packedA);
+					macroKernel(packedA, packedB, out, ic, mc, jc, nc, kc, tile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Packs the mc x kc block of a starting at row ic, column pc into micro-panels of MR rows.
+	 * Within a micro-panel the MR entries of each column are adjacent; short panels are padded
+	 * with zeros.
+	 */
+	private static void packA(double[][] a, int ic, int mc, int pc, int kc, double[] packed) {
+		int pos = 0;
+		for(int ir = 0; ir < mc; ir += MR) {
+			int mr = Math.min(MR, mc - ir);
+			for(int p = 0; p < kc; p++) {
+				double[] col = a[pc + p];
+				int row = ic + ir;
+				int r = 0;
+				for(; r < mr; r++) {
+					packed[pos++] = col[row + r];
+				}
+				for(; r < MR; r++) {
+					packed[pos++] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Packs the kc x nc block of b starting at row pc, column jc into micro-panels of NR columns.
+	 * Within a micro-panel the NR entries of each row are adjacent; short panels are padded with
+	 * zeros.
+	 */
+	private static void packB(double[][] b, int pc, int kc, int jc, int nc, double[] packed) {
+		int pos = 0;
+		for(int jr = 0; jr < nc; jr += NR) {
+			int nr = Math.min(NR, nc - jr);
+			for(int p = 0; p < kc; p++) {
+				int c = 0;
+				for(; c < nr; c++) {
+					packed[pos++] = b[jc + jr + c][pc + p];
+				}
+				for(; c < NR; c++) {
+					packed[pos++] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the micro-kernel over every MR x NR tile of the packed panels, accumulating into the
+	 * corresponding block of out.
+	 */
+	private static void macroKernel(double[] packedA, double[] packedB, double[][] out,
+			int ic, int mc, int jc, int nc, int kc, double[] tile) {
+		for(int jr = 0; jr < nc; jr += NR) {
+			int nr = Math.min(NR, nc - jr);
+			for(int ir = 0; ir < mc; ir += MR) {
+				int mr = Math.min(MR, mc - ir);
+				VectorKernels.ACTIVE.microKernel(packedA, ir * kc, packedB, jr * kc, kc, tile);
+				int row = ic + ir;
+				for(int c = 0; c < nr; c++) {
+					double[] o = out[jc + jr + c];
+					for(int r = 0; r < mr; r++) {
+						o[row + r] += tile[c * MR + r];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the product ab into out, which must be a.rows() x b.cols() and is overwritten.
+	 * Works on any layout of DenseMatrix, including transposed and submatrix views, by packing
+	 * panels exactly as gemm(double[][], double[][], double[][]) does.
+	 * @param a		m x k matrix
+	 * @param b		k x n matrix
+	 * @param out	m x n result matrix
+	 */
+	static void gemm(DenseMatrix a, DenseMatrix b, DenseMatrix out) {
+		gemm(a, b, out, 0, b.cols);
+	}
+
+	/**
+	 * Computes columns [colFrom, colTo) of the product ab into the same columns of out.
+	 * @param a			m x k matrix
+	 * @param b			k x n matrix
+	 * @param out		m x n result matrix
+	 * @param colFrom	first column of out to compute
+	 * @param colTo		one past the last column of out to compute
+	 */
+	static void gemm(DenseMatrix a, DenseMatrix b, DenseMatrix out, int colFrom, int colTo) {
+		for(int j = colFrom; j < colTo; j++) {
+			for(int i = 0; i < out.rows; i++) {
+				out.set(i, j, 0);
+			}
+		}
+		gemmAdd(a, b, out, colFrom, colTo);
+	}
+
+	/**
+	 * Adds the product ab to columns [colFrom, colTo) of out.
+	 * @param a			m x k matrix
+	 * @param b			k x n matrix
+	 * @param out		m x n matrix to accumulate into
+	 * @param colFrom	first column of out to update
+	 * @param colTo		one past the last column of out to update
+	 */
+	static void gemmAdd(DenseMatrix a, DenseMatrix b, DenseMatrix out, int colFrom, int colTo) {
+		int m = out.rows;
+		int k = a.cols;
+		if(m == 0 || k == 0 || colTo <= colFrom) {
+			return;
+		}
+		double[] packedA = new double[roundUp(Math.min(MC, m), MR) * Math.min(KC, k)];
+		double[] packedB = new double[roundUp(Math.min(NC, colTo - colFrom), NR) * Math.min(KC, k)];
+		double[] tile = new double[MR * NR];
+		for(int jc = colFrom; jc < colTo; jc += NC) {
+			int nc = Math.min(NC, colTo - jc);
+			for(int pc = 0; pc < k; pc += KC) {
+				int kc = Math.min(KC, k - pc);
+				packB(b, pc, kc, jc, nc, packedB);
+				for(int ic = 0; ic < m; ic += MC) {
+					int mc = Math.min(MC, m - ic);
+					packA(a, ic, mc, pc, kc, packedA);
+					macroKernel(packedA, packedB, out, ic, mc, jc, nc, kc, tile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * DenseMatrix version of packA(double[][], ...).
+	 */
+	private static void packA(DenseMatrix a, int ic, int mc, int pc, int kc, double[] packed) {
+		int pos = 0;
+		for(int ir = 0; ir < mc; ir += MR) {
+			int mr = Math.min(MR, mc - ir);
+			for(int p = 0; p < kc; p++) {
+				int r = 0;
+				for(; r < mr; r++) {
+					packed[pos++] = a.get(ic + ir + r, pc + p);
+				}
+				for(; r < MR; r++) {
+					packed[pos++] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * DenseMatrix version of packB(double[][], ...).
+	 */
+	private static void packB(DenseMatrix b, int pc, int kc, int jc, int nc, double[] packed) {
+		int pos = 0;
+		for(int jr = 0; jr < nc; jr += NR) {
+			int nr = Math.min(NR, nc - jr);
+			for(int p = 0; p < kc; p++) {
+				int c = 0;
+				for(; c < nr; c++) {
+					packed[pos++] = b.get(pc + p, jc + jr + c);
+				}
+				for(; c < NR; c++) {
+					packed[pos++] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * DenseMatrix version of macroKernel(double[], double[], double[][], ...).
+	 */
+	private static void macroKernel(double[] packedA, double[] packedB, DenseMatrix out,
+			int ic, int mc, int jc, int nc, int kc, double[] tile) {
+		for(int jr = 0; jr < nc; jr += NR) {
+			int nr = Math.min(NR, nc - jr);
+			for(int ir = 0; ir < mc; ir += MR) {
+				int mr = Math.min(MR, mc - ir);
+				VectorKernels.ACTIVE.microKernel(packedA, ir * kc, packedB, jr * kc, kc, tile);
+				for(int c = 0; c < nr; c++) {
+					for(int r = 0; r < mr; r++) {
+						out.add(ic + ir + r, jc + jr + c, tile[c * MR + r]);
+					}
+				}
+			}
+		}
+	}
+
+	static final int SYRK_BLOCK = 256; //Side of the output tiles handed to one syrk task
+
+	/**
+	 * Adds the upper triangle (including the diagonal) of the rank-k update (a^T)a to c. The
+	 * strictly lower triangle of c is left in an unspecified state; see mirrorUpper. c is split
+	 * into square tiles, and the columns of tiles are spread over the Parallel pool. Each entry is
+	 * always summed in the same order, so results do not depend on the number of threads.
+	 * @param a	k x n matrix
+	 * @param c	n x n matrix to accumulate into
+	 */
+	static void syrk(DenseMatrix a, DenseMatrix c) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.SYRK);
+		int n = a.cols;
+		int tiles = (n + SYRK_BLOCK - 1) / SYRK_BLOCK;
+		Parallel.forRange(tiles, (long) a.rows * n * SYRK_BLOCK / 2, (from, to) -> {
+			for(int tj = from; tj < to; tj++) {
+				int j0 = tj * SYRK_BLOCK;
+				int nj = Math.min(SYRK_BLOCK, n - j0);
+				DenseMatrix right = a.columns(j0, j0 + nj);
+				for(int ti = 0; ti <= tj; ti++) {
+					int i0 = ti * SYRK_BLOCK;
+					int ni = Math.min(SYRK_BLOCK, n - i0);
+					DenseMatrix left = a.columns(i0, i0 + ni).transpose();
+					gemmAdd(left, right, c.submatrix(i0, j0, ni, nj), 0, nj);
+				}
+			}
+		});
+		long k = a.rows;
+		Metrics.stop(timer, k * n * (n + 1), 8 * (k * n + (long) n * n));
+	}
+
+	static final int GEMV_BLOCK = 4096; //Rows of y kept in cache while the columns stream past
+
+	/**
+	 * Computes the matrix-vector product y := ax with no temporary vectors. Rows are split into
+	 * blocks that stay in cache while four columns of a at a time are added into them, and blocks
+	 * are spread over the Parallel pool. Each row is always summed in the same order, so results
+	 * do not depend on the number of threads.
+	 * @param a	m x n matrix
+	 * @param x	vector of length n
+	 * @param y	vector of length m; overwritten
+	 */
+	static void gemv(DenseMatrix a, double[] x, double[] y) {
+		int m = a.rows;
+		int n = a.cols;
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.GEMV);
+		int blocks = (m + GEMV_BLOCK - 1) / GEMV_BLOCK;
+		Parallel.forRange(blocks, (long) GEMV_BLOCK * n, (from, to) -> {
+			for(int b = from; b < to; b++) {
+				int r0 = b * GEMV_BLOCK;
+				int r1 = Math.min(m, r0 + GEMV_BLOCK);
+				java.util.Arrays.fill(y, r0, r1, 0);
+				if(a.hasContiguousFloatColumns()) {
+					gemvFloatBlock(a, x, y, r0, r1);
+					continue;
+				}
+				if(!a.hasContiguousColumns()) {
+					for(int j = 0; j < n; j++) {
+						for(int r = r0; r < r1; r++) {
+							y[r] += x[j] * a.get(r, j);
+						}
+					}
+					continue;
+				}
+				double[] v = a.array();
+				int j = 0;
+				for(; j + 3 < n; j += 4) {
+					int c0 = (int) a.index(0, j);
+					int c1 = (int) a.index(0, j + 1);
+					int c2 = (int) a.index(0, j + 2);
+					int c3 = (int) a.index(0, j + 3);
+					double x0 = x[j], x1 = x[j + 1], x2 = x[j + 2], x3 = x[j + 3];
+					for(int r = r0; r < r1; r++) {
+						y[r] += x0 * v[c0 + r] + x1 * v[c1 + r] + x2 * v[c2 + r] + x3 * v[c3 + r];
+					}
+				}
+				for(; j < n; j++) {
+					int c = (int) a.index(0, j);
+					double xj = x[j];
+					for(int r = r0; r < r1; r++) {
+						y[r] += xj * v[c + r];
+					}
+				}
+			}
+		});
+		Metrics.stop(timer, 2L * m * n, (long) a.entryBytes() * m * n + 8L * (m + n));
+	}
+
+	/**
+	 * Adds rows [r0, r1) of ax into y for a single precision matrix with contiguous columns,
+	 * four columns at a time as in gemv, widening each entry to double.
+	 */
+	private static void gemvFloatBlock(DenseMatrix a, double[] x, double[] y, int r0, int r1) {
+		float[] v = a.floatArray();
+		int n = a.cols;
+		int j = 0;
+		for(; j + 3 < n; j += 4) {
+			int c0 = (int) a.index(0, j);
+			int c1 = (int) a.index(0, j + 1);
+			int c2 = (int) a.index(0, j + 2);
+			int c3 = (int) a.index(0, j + 3);
+			double x0 = x[j], x1 = x[j + 1], x2 = x[j + 2], x3 = x[j + 3];
+			for(int r = r0; r < r1; r++) {
+				y[r] += x0 * v[c0 + r] + x1 * v[c1 + r] + x2 * v[c2 + r] + x3 * v[c3 + r];
+			}
+		}
+		for(; j < n; j++) {
+			int c = (int) a.index(0, j);
+			double xj = x[j];
+			for(int r = r0; r < r1; r++) {
+				y[r] += xj * v[c + r];
+			}
+		}
+	}
+
+	/**
+	 * Computes the transposed matrix-vector product y := (a^T)x with no temporary vectors and
+	 * without forming the transpose: y[j] is the dot product of column j of a with x, computed
+	 * by VectorKernels.dot. Columns are spread over the Parallel pool, and each dot product is
+	 * computed on one thread.
+	 * @param a	m x n matrix
+	 * @param x	vector of length m
+	 * @param y	vector of length n; overwritten
+	 */
+	static void gemvTranspose(DenseMatrix a, double[] x, double[] y) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.GEMV);
+		int m = a.rows;
+		Parallel.forRange(a.cols, m, (from, to) -> {
+			if(a.hasContiguousFloatColumns()) {
+				float[] v = a.floatArray();
+				for(int j = from; j < to; j++) {
+					y[j] = VectorKernels.ACTIVE.dot(v, (int) a.index(0, j), x, 0, m);
+				}
+				return;
+			}
+			if(!a.hasContiguousColumns()) {
+				for(int j = from; j < to; j++) {
+					double sum = 0;
+					for(int r = 0; r < m; r++) {
+						sum += a.get(r, j) * x[r];
+					}
+					y[j] = sum;
+				}
+				return;
+			}
+			double[] v = a.array();
+			for(int j = from; j < to; j++) {
+				y[j] = VectorKernels.ACTIVE.dot(v, (int) a.index(0, j), x, 0, m);
+			}
+		});
+		Metrics.stop(timer, 2L * m * a.cols,
+				(long) a.entryBytes() * m * a.cols + 8L * (m + a.cols));
+	}
+
+	/**
+	 * Subtracts the rank-1 matrix t(p^T) from a in place. If x is not null, the product
+	 * y := (a^T)x with the updated a is computed in the same pass, so that the first step of the
+	 * next NIPALS component costs no extra pass over a. Results are the same as those of a
+	 * separate gemvTranspose.
+	 * @param a	m x n matrix; updated in place
+	 * @param t	vector of length m
+	 * @param p	vector of length n
+	 * @param x	vector of length m, or null
+	 * @param y	vector of length n, overwritten if x is not null
+	 */
+	static void deflate(DenseMatrix a, double[] t, double[] p, double[] x, double[] y) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.GEMV);
+		int m = a.rows;
+		Parallel.forRange(a.cols, m, (from, to) -> {
+			double[] v = a.hasContiguousColumns() ? a.array() : null;
+			float[] f = a.hasContiguousFloatColumns() ? a.floatArray() : null;
+			for(int j = from; j < to; j++) {
+				double pj = p[j];
+				double sum = 0;
+				if(v != null) {
+					int c = (int) a.index(0, j);
+					if(x == null) {
+						VectorKernels.ACTIVE.axpy(-pj, t, 0, v, c, m);
+					} else {
+						sum = VectorKernels.ACTIVE.axpyDot(-pj, t, 0, v, c, x, 0, m);
+					}
+				} else if(f != null) {
+					int c = (int) a.index(0, j);
+					if(x == null) {
+						VectorKernels.ACTIVE.axpy(-pj, t, 0, f, c, m);
+					} else {
+						sum = VectorKernels.ACTIVE.axpyDot(-pj, t, 0, f, c, x, 0, m);
+					}
+				} else {
+					for(int r = 0; r < m; r++) {
+						double e = a.get(r, j) - t[r] * pj;
+						a.set(r, j, e);
+						if(x != null) {
+							sum += e * x[r];
+						}
+					}
+				}
+				if(x != null) {
+					y[j] = sum;
+				}
+			}
+		});
+		long products = (x == null ? 1L : 2L) * m * a.cols;
+		Metrics.stop(timer, 2 * products,
+				2L * a.entryBytes() * m * a.cols + 8 * (2L * m + 2L * a.cols));
+	}
+
+	/**
+	 * Copies the upper triangle of the square matrix c onto its lower triangle.
+	 */
+	static void mirrorUpper(DenseMatrix c) {
+		for(int j = 0; j < c.cols; j++) {
+			for(int i = j + 1; i < c.rows; i++) {
+				c.set(i, j, c.get(j, i));
+			}
+		}
+	}
+
+	/**
+	 * Rounds n up to the nearest multiple of step.
+	 */
+	static int roundUp(int n, int step) {
+		return (n + step - 1) / step * step;
+	}
+}
@@ -0,0 +1,250 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Computes only the leading eigenpairs of a symmetric matrix with the thick-restart Lanczos
+ * method, which is mathematically equivalent to implicitly restarted Lanczos. The matrix is
+ * never needed explicitly: it is accessed through a SymmetricOperator that multiplies it by a
+ * vector.
+ *
+ * Each cycle extends an orthonormal Krylov basis to m vectors, reorthogonalizing every new
+ * vector against the whole basis, and takes the Ritz pairs of the projected matrix. If the
+ * leading numValues pairs have not converged, the best Ritz vectors and the residual vector
+ * become the start of the next basis. Work per cycle is O(m) products plus O(m^2 p) for the
+ * reorthogonalization, where m is the basis size, so the cost grows with the number of
+ * eigenpairs requested rather than with p^3.
+ */
+class LanczosEigensolver {
+
+	static final double TOLERANCE = 1e-10; //Residual norm, relative to the largest eigenvalue
+	static final int MAX_RESTARTS = 500;
+	static final long SEED = 1; //Seed for the start vector, so results are repeatable
+
+	private final SymmetricOperator op;
+	private final int p; //Dimension of the operator
+	private final int numValues;
+	private final int m; //Basis size
+	private double[][] basis; //basis[j] is the jth Lanczos vector; basis[m] is the residual
+	private double[][] spare; //Storage for the next basis during a restart
+	private final double[] w; //Product of the operator with the newest basis vector
+	private final double[] coeffs;
+	private final DenseMatrix T; //Projection of the operator onto the basis
+	private final Random random = new Random(SEED);
+	private long flops = 0; //Work of the solver itself, not counting products with the operator
+
+	private LanczosEigensolver(SymmetricOperator op, int numValues) {
+		this.op = op;
+		this.p = op.size();
+		this.numValues = numValues;
+		this.m = Math.min(p, Math.max(2 * numValues + 1, numValues + 20));
+		this.basis = new double[m + 1][p];
+		this.spare = new double[m + 1][];
+		this.w = new double[p];
+		this.coeffs = new double[m];
+		this.T = DenseMatrix.zeros(m, m);
+	}
+
+	/**
+	 * Computes the numValues algebraically largest eigenvalues of op and their eigenvectors.
+	 * @param op		symmetric operator
+	 * @param numValues	number of eigenpairs desired
+	 * @return			an EigenSet with numValues eigenvalues in decreasing order; vectors[k] is
+	 * 					the unit eigenvector of values[k]
+	 */
+	static EigenSet leading(SymmetricOperator op, int numValues) {
+		if(numValues > op.size()) {
+			throw new MatrixException("Cannot produce more eigenvalues than the dimension " + op.size()
+					+ ".");
+		}
+		if(numValues <= 0) {
+			EigenSet ret = new EigenSet();
+			ret.values = new double[0];
+			ret.vectors = new double[0][];
+			return ret;
+		}
+		return new LanczosEigensolver(op, numValues).solve();
+	}
+
+	/**
+	 * Returns an operator that multiplies by the symmetric matrix a.
+	 */
+	static SymmetricOperator operator(final DenseMatrix a) {
+		if(a.rows != a.cols) {
+			throw new MatrixException("Eigendecomposition not defined on nonsquare matrices.");
+		}
+		return new SymmetricOperator() {
+			public int size() {
+				return a.rows;
+			}
+
+			public void apply(double[] x, double[] y) {
+				DenseMatrix ax = Matrix.multiply(a, DenseMatrix.wrap(x, x.length, 1));
+				System.arraycopy(ax.array(), 0, y, 0, y.length);
+			}
+		};
+	}
+
+	/**
+	 * Runs Lanczos cycles until the leading numValues Ritz pairs converge.
+	 */
+	private EigenSet solve() {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.LANCZOS);
+		randomStart(basis[0], 0);
+		int kept = 0; //Number of Ritz vectors carried over from the previous cycle
+		for(int restart = 0; restart <= MAX_RESTARTS; restart++) {
+			double beta = extend(kept);
+			EigenSet ritz = SymmetricEigensolver.decompose(T);
+			//The residual of Ritz pair i is beta times the last component of its vector
+			double scale = Math.max(Math.abs(ritz.values[0]), Double.MIN_NORMAL);
+			boolean converged = true;
+			for(int i = 0; i < numValues; i++) {
+				if(Math.abs(beta * ritz.vectors[i][m - 1]) > TOLERANCE * scale) {
+					converged = false;
+					break;
+				}
+			}
+			if(converged || m == p) {
+				EigenSet ret = new EigenSet();
+				ret.values = Arrays.copyOf(ritz.values, numValues);
+				ret.vectors = new double[numValues][];
+				for(int i = 0; i < numValues; i++) {
+					ret.vectors[i] = combine(ritz.vectors[i], new double[p]);
+				}
+				Metrics.stop(timer, flops, 8L * (m + 1) * p);
+				return ret;
+			}
+			kept = Math.min(m - 1, numValues + (m - numValues)/2);
+			restart(ritz, beta, kept);
+		}
+		throw new MatrixException("Lanczos iteration did not converge.");
+	}
+
+	/**
+	 * Extends the basis from basis[kept] to basis[m - 1], filling in T, and leaves the normalized
+	 * residual in basis[m].
+	 * @return	the norm of the residual
+	 */
+	private double extend(int kept) {
+		double beta = 0;
+		for(int j = kept; j < m; j++) {
+			op.apply(basis[j], w);
+			double size = Matrix.norm(w);
+			//Classical Gram-Schmidt twice: the second pass removes what rounding left behind
+			Arrays.fill(coeffs, 0, j + 1, 0);
+			for(int pass = 0; pass < 2; pass++) {
+				for(int i = 0; i <= j; i++) {
+					double c = Matrix.dot(basis[i], w);
+					coeffs[i] += c;
+					axpy(-c, basis[i], w);
+				}
+			}
+			flops += 8L * p * (j + 1) + 5L * p;
+			for(int i = 0; i <= j; i++) {
+				T.set(i, j, coeffs[i]);
+				T.set(j, i, coeffs[i]);
+			}
+			beta = Matrix.norm(w);
+			if(beta <= 1e-12 * size) {
+				//The basis spans an invariant subspace; continue from a fresh direction
+				beta = 0;
+				if(j + 1 < m) {
+					randomStart(basis[j + 1], j + 1);
+				}
+			} else {
+				for(int i = 0; i < p; i++) {
+					basis[j + 1][i] = w[i]/beta;
+				}
+			}
+		}
+		return beta;
+	}
+
+	/**
+	 * Replaces the basis with the leading kept Ritz vectors followed by the residual vector, and
+	 * T with the corresponding diagonal of Ritz values.
+	 */
+	private void restart(EigenSet ritz, double beta, int kept) {
+		for(int i = 0; i < kept; i++) {
+			if(spare[i] == null) {
+				spare[i] = new double[p];
+			}
+			combine(ritz.vectors[i], spare[i]);
+		}
+		double[] residual = basis[m];
+		for(int i = 0; i < kept; i++) {
+			double[] old = basis[i];
+			basis[i] = spare[i];
+			spare[i] = old;
+		}
+		//beta == 0 means the residual vector is a fresh random direction, not a Lanczos vector
+		if(beta != 0) {
+			double[] old = basis[kept];
+			basis[kept] = residual;
+			basis[m] = old;
+		} else {
+			randomStart(basis[kept], kept);
+		}
+		for(int j = 0; j < m; j++) {
+			for(int i = 0; i < m; i++) {
+				T.set(i, j, 0);
+			}
+		}
+		for(int i = 0; i < kept; i++) {
+			T.set(i, i, ritz.values[i]);
+		}
+	}
+
+	/**
+	 * Computes the combination of the first m basis vectors with coefficients y.
+	 */
+	private double[] combine(double[] y, double[] out) {
+		flops += 2L * m * p;
+		Arrays.fill(out, 0);
+		for(int j = 0; j < m; j++) {
+			axpy(y[j], basis[j], out);
+		}
+		return out;
+	}
+
+	/**
+	 * Fills v with a random unit vector orthogonal to the first count basis vectors.
+	 */
+	private void randomStart(double[] v, int count) {
+		do {
+			for(int i = 0; i < p; i++) {
+				v[i] = random.nextDouble() - 0.5;
+			}
+			for(int pass = 0; pass < 2; pass++) {
+				for(int i = 0; i < count; i++) {
+					axpy(-Matrix.dot(basis[i], v), basis[i], v);
+				}
+			}
+		} while(Matrix.norm(v) < 1e-8);
+		double norm = Matrix.norm(v);
+		for(int i = 0; i < p; i++) {
+			v[i] /= norm;
+		}
+	}
+
+	/**
+	 * y := y + ax
+	 */
+	private static void axpy(double a, double[] x, double[] y) {
+		VectorKernels.ACTIVE.axpy(a, x, 0, y, 0, y.length);
+	}
+}
+
+/**
+ * A symmetric linear map, known only through its products with vectors.
+ */
+interface SymmetricOperator {
+	/**
+	 * Returns the dimension of the vectors the operator acts on.
+	 */
+	int size();
+
+	/**
+	 * Computes y := Ax. x must not be modified.
+	 */
+	void apply(double[] x, double[] y);
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * Class for performing matrix calculations specific to PCA.
  * @author	Kushal Ranjan
@@ -5,89 +7,141 @@
  */
 class Matrix {
 	
-	static int numMults = 0; //Keeps track of the number of multiplications performed
-	
 	/**
 	 * Test code for SVD. Uses example from MIT video: http://www.youtube.com/watch?v=cOUTpqlX-Xs
+	 * The second example has rank 1, so one of its singular values is zero.
 	 */
 	public static void main(String[] args) {
-		System.out.println("Original matrix:");
-		double[][] test = {{5, -1}, {5, 7}}; //C
-		Matrix.print(test);
-		double[][][] SVD = Matrix.singularValueDecomposition(test);
-		double[][] U = SVD[0];
-		double[][] S = SVD[1];
-		double[][] V = SVD[2];
-		System.out.println("U-matrix:");
-		Matrix.print(U);
-		System.out.println("Sigma-matrix:");
-		Matrix.print(S);
-		System.out.println("V-matrix:");
-		Matrix.print(V);
-		System.out.println("Decomposition product (C = US(V^T)):");
-		Matrix.print(Matrix.multiply(U, Matrix.multiply(S, Matrix.transpose(V)))); //Should be C
-	}
-	
-	
-	/**
-	 * Computes the singular value decomposition (SVD) of the input matrix.
-	 * @param input		the input matrix
-	 * @return			the SVD of input, {U,S,V}, such that input = US(V^T). U and S are
-	 * 					orthogonal matrix, and the non-zero entries of the diagonal matrix S are
-	 * 					the 
+		double[][][] tests = {{{5, -1}, {5, 7}}, {{1, 2, 3}, {2, 4, 6}}}; //C
+		for(double[][] test: tests) {
+			System.out.println("Original matrix:");
+			Matrix.print(test);
+			double[][][] SVD = Matrix.singularValueDecomposition(test);
+			double[][] U = SVD[0];
+			double[] S = SVD[1][0];
+			double[][] V = SVD[2];
+			System.out.println("U-matrix:");
+			Matrix.print(U);
+			System.out.println("Singular values:");
+			Matrix.print(SVD[1]);
+			System.out.println("V-matrix:");
+			Matrix.print(V);
+			double[][] US = new double[U.length][];
+			for(int i = 0; i < U.length; i++) {
+				US[i] = U[i].clone();
+				for(int j = 0; j < US[i].length; j++) {
+					US[i][j] *= S[i]; //Column i of U times the ith singular value
+				}
+			}
+			System.out.println("Decomposition product (C = US(V^T)):");
+			Matrix.print(Matrix.multiply(US, Matrix.transpose(V))); //Should be C
+		}
+	}
+	
+	/**
+	 * Computes the thin singular value decomposition (SVD) of the input matrix with
+	 * JacobiSVD.
+	 * @param input		the input matrix; input[i] is the ith column
+	 * @return			the SVD of input, {U, {s}, V}, such that input = U diag(s) (V^T). s holds
+	 * 					the min(rows, columns) singular values in decreasing order, and U and V
+	 * 					hold the same number of orthonormal columns (U[i] and V[i] are the ith
+	 * 					singular vectors).
 	 */
 	static double[][][] singularValueDecomposition(double[][] input) {
-		double[][] C = Matrix.copy(input);
-		double[][] CTC = multiply(transpose(C), C); //(C^T)C = V(S^T)S(V^T)
-		EigenSet eigenC = eigenDecomposition(CTC);
-		double[][] S = new double[C.length][C.length]; //Diagonal matrix
-		for(int i = 0; i < S.length; i++) {
-			S[i][i] = Math.sqrt(eigenC.values[i]); //Squareroots of eigenvalues are entries of S
-		}
-		double[][] V = eigenC.vectors;
-		double[][] CV = multiply(C, V); //CV = US
-		double[][] invS = copy(S); //Inverse of S
-		for(int i = 0; i < invS.length; i++) {
-			invS[i][i] = 1.0/S[i][i];
-		}
-		double[][] U = multiply(CV, invS); //U = CV(S^-1)
-		return new double[][][] {U, S, V};
+		SVDSet svd = singularValueDecomposition(DenseMatrix.fromColumns(input));
+		return new double[][][] {svd.U.toColumns(), {svd.values}, svd.V.toColumns()};
+	}
+	
+	/**
+	 * DenseMatrix version of singularValueDecomposition(double[][]).
+	 * @param input		the input matrix
+	 * @return			the thin SVD of input
+	 */
+	static SVDSet singularValueDecomposition(DenseMatrix input) {
+		return JacobiSVD.decompose(input);
 	}
 	
 	/**
-	 * Determines the eigenvalues and eigenvectors of a matrix by using the QR algorithm. Repeats
-	 * until no eigenvalue changes by more than 1/100000.
+	 * Determines the eigenvalues and eigenvectors of a matrix. Symmetric matrices, such as
+	 * covariance matrices, are handed to SymmetricEigensolver and come back sorted by decreasing
+	 * eigenvalue. Other matrices use the unshifted QR algorithm, which repeats until no
+	 * eigenvalue changes by more than 1/100000.
 	 * @param	input	input matrix; must be square
 	 * @return			an EigenSet containing the eigenvalues and corresponding eigenvectors of
 	 * 					input
 	 */
 	static EigenSet eigenDecomposition(double[][] input) {
-		if(input.length != input[0].length) {
+		return eigenDecomposition(DenseMatrix.fromColumns(input));
+	}
+	
+	/**
+	 * DenseMatrix version of eigenDecomposition(double[][]). The input is not modified.
+	 * @param	input	input matrix; must be square
+	 * @return			an EigenSet containing the eigenvalues and corresponding eigenvectors of
+	 * 					input
+	 */
+	static EigenSet eigenDecomposition(DenseMatrix input) {
+		if(input.rows != input.cols) {
 			throw new MatrixException("Eigendecomposition not defined on nonsquare matrices.");
 		}
-		double[][] copy = copy(input);
-		double[][] Q = new double[copy.length][copy.length];
-		for(int i = 0; i < Q.length; i++) {
-			Q[i][i] = 1; //Q starts as an identity matrix
+		if(SymmetricEigensolver.isSymmetric(input)) {
+			return SymmetricEigensolver.decompose(input);
+		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.EIGEN);
+		DenseMatrix copy = input.copy();
+		DenseMatrix Q = DenseMatrix.zeros(copy.rows, copy.cols);
+		for(int i = 0; i < Q.rows; i++) {
+			Q.set(i, i, 1); //Q starts as an identity matrix
 		}
 		boolean done = false;
 		while(!done) {
-			double[][][] fact = Matrix.QRFactorize(copy);
-			double[][] newMat = Matrix.multiply(fact[1], fact[0]); //[A_k+1] := [R_k][Q_k]
-			Q = Matrix.multiply(fact[0], Q);
+			DenseMatrix[] fact = Matrix.QRFactorize(copy);
+			DenseMatrix newMat = Matrix.multiply(fact[1], fact[0]); //[A_k+1] := [R_k][Q_k]
+			Q = Matrix.multiply(Q, fact[0]); //Accumulate Q_0 Q_1 ... Q_k
 			//Stop the loop if no eigenvalue changes by more than 1/100000
-			for(int i = 0; i < copy.length; i++) {
-				if(Math.abs(newMat[i][i] - copy[i][i]) > 0.00001) {
+			for(int i = 0; i < copy.rows; i++) {
+				if(Math.abs(newMat.get(i, i) - copy.get(i, i)) > 0.00001) {
 					copy = newMat;
 					break;
-				} else if(i == copy.length - 1) { //End of copy table
+				} else if(i == copy.rows - 1) { //End of copy table
 					done = true;
 				}
 			}
 		}
 		EigenSet ret = new EigenSet();
 		ret.values = Matrix.extractDiagonalEntries(copy); //Eigenvalues lie on diagonal
-		ret.vectors = Q; //Columns of Q converge to the eigenvectors
+		ret.vectors = Q.toColumns(); //Columns of Q converge to the eigenvectors
+		Metrics.stop(timer, 0, 0); //The work is in the multiplications and factorizations
+		return ret;
+	}
+	
+	/**
+	 * Determines the numValues largest eigenvalues of a symmetric matrix and their eigenvectors.
+	 * When only a few are wanted (4 * numValues < size), they are found with the Lanczos method
+	 * without computing the rest; otherwise the full decomposition is truncated.
+	 * @param	input		symmetric input matrix
+	 * @param	numValues	number of eigenpairs desired
+	 * @return				an EigenSet with numValues eigenvalues in decreasing order and their
+	 * 						eigenvectors
+	 */
+	static EigenSet eigenDecomposition(DenseMatrix input, int numValues) {
+		if(4L * numValues < input.rows) {
+			return LanczosEigensolver.leading(LanczosEigensolver.operator(input), numValues);
+		}
+		return leading(SymmetricEigensolver.decompose(input), numValues);
+	}
+	
+	/**
+	 * Keeps the first numValues eigenpairs of a sorted EigenSet.
+	 */
+	static EigenSet leading(EigenSet eigen, int numValues) {
+		if(numValues > eigen.values.length) {
+			throw new MatrixException("Cannot produce more eigenvalues than the dimension "
+					+ eigen.values.length + ".");
+		}
+		EigenSet ret = new EigenSet();
+		ret.values = Arrays.copyOf(eigen.values, numValues);
+		ret.vectors = Arrays.copyOf(eigen.vectors, numValues);
 		return ret;
 	}
 	
@@ -104,23 +158,46 @@ class Matrix {
 		return out;
 	}
 	
+	/**
+	 * DenseMatrix version of extractDiagonalEntries(double[][]).
+	 */
+	static double[] extractDiagonalEntries(DenseMatrix input) {
+		double[] out = new double[Math.min(input.rows, input.cols)];
+		for(int i = 0; i < out.length; i++) {
+			out[i] = input.get(i, i);
+		}
+		return out;
+	}
+	
 	/**
 	 * Performs a QR factorization on the input matrix.
 	 * @param input	input matrix
 	 * @return		{Q, R}, the QR factorization of input.
 	 */
 	static double[][][] QRFactorize(double[][] input) {
-		double[][][] out = new double[2][][];
-		double[][] orthonorm = gramSchmidt(input);
-		out[0] = orthonorm; //Q is the matrix of the orthonormal vectors formed by GS on input
-		double[][] R = new double[orthonorm.length][orthonorm.length];
-		for(int i = 0; i < R.length; i++) {
+		DenseMatrix[] fact = QRFactorize(DenseMatrix.fromColumns(input));
+		return new double[][][] {fact[0].toColumns(), fact[1].toColumns()};
+	}
+	
+	/**
+	 * DenseMatrix version of QRFactorize(double[][]).
+	 * @param input	input matrix
+	 * @return		{Q, R}, the QR factorization of input.
+	 */
+	static DenseMatrix[] QRFactorize(DenseMatrix input) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.QR_FACTORIZE);
+		DenseMatrix orthonorm = gramSchmidt(input);
+		//Q is the matrix of the orthonormal vectors formed by GS on input
+		DenseMatrix R = DenseMatrix.zeros(orthonorm.cols, orthonorm.cols);
+		for(int i = 0; i < R.cols; i++) {
 			for(int j = 0; j <= i; j++) {
-				R[i][j] = dot(input[i], orthonorm[j]);
+				R.set(j, i, dotColumns(input, i, orthonorm, j));
 			}
 		}
-		out[1] = R;
-		return out;
+		long m = input.rows;
+		long n = input.cols;
+		Metrics.stop(timer, 3 * m * n * n, 8 * (2 * m * n + n * n));
+		return new DenseMatrix[] {orthonorm, R};
 	}
 	
 	/**
@@ -129,18 +206,79 @@ class Matrix {
 	 * @return		orthonormal list with the same span as input
 	 */
 	static double[][] gramSchmidt(double[][] input) {
-		double[][] out = new double[input.length][input[0].length];
-		for(int outPos = 0; outPos < out.length; outPos++) {
-			double[] v = input[outPos];
+		return gramSchmidt(DenseMatrix.fromColumns(input)).toColumns();
+	}
+	
+	/**
+	 * DenseMatrix version of gramSchmidt(double[][]); the vectors are the columns of input.
+	 * @param input	matrix whose columns are the vectors
+	 * @return		matrix whose columns are an orthonormal list with the same span as input
+	 */
+	static DenseMatrix gramSchmidt(DenseMatrix input) {
+		DenseMatrix out = input.copy();
+		for(int outPos = 0; outPos < out.cols; outPos++) {
 			for(int j = outPos - 1; j >= 0; j--) {
-				double[] sub = proj(v, out[j]);
-				v = subtract(v, sub); //Subtract off non-orthogonal components
+				//Subtract off non-orthogonal components
+				double constant = dotColumns(out, j, out, outPos)/dotColumns(out, j, out, j);
+				for(int r = 0; r < out.rows; r++) {
+					out.add(r, outPos, -constant * out.get(r, j));
+				}
+			}
+			double norm = Math.sqrt(dotColumns(out, outPos, out, outPos));
+			for(int r = 0; r < out.rows; r++) {
+				out.set(r, outPos, out.get(r, outPos)/norm); //return an orthonormal list
 			}
-			out[outPos] = normalize(v); //return an orthonormal list
 		}
 		return out;
 	}
 	
+	/**
+	 * Orthonormalizes the columns of a heap matrix in place by modified Gram-Schmidt, applied
+	 * twice so that the result is orthonormal to working precision. Columns that are dependent on
+	 * earlier ones are set to zero. Suited to tall, skinny matrices such as the bases of
+	 * randomized and block methods.
+	 * @param input	matrix with contiguous columns, as returned by multiply or DenseMatrix.zeros
+	 */
+	static void orthonormalizeColumns(DenseMatrix input) {
+		if(!input.hasContiguousColumns()) {
+			throw new MatrixException("Columns must be contiguous.");
+		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.QR_FACTORIZE);
+		VectorKernels kernels = VectorKernels.ACTIVE;
+		double[] a = input.array();
+		int n = input.rows;
+		for(int j = 0; j < input.cols; j++) {
+			int cj = (int) input.index(0, j);
+			double before = kernels.dot(a, cj, a, cj, n);
+			for(int pass = 0; pass < 2; pass++) {
+				for(int i = 0; i < j; i++) {
+					int ci = (int) input.index(0, i);
+					kernels.axpy(-kernels.dot(a, ci, a, cj, n), a, ci, a, cj, n);
+				}
+			}
+			double norm = kernels.dot(a, cj, a, cj, n);
+			//A column that lost nearly all of its length lies in the span of the others
+			double scale = norm > 1e-24 * before && norm > 0 ? 1/Math.sqrt(norm) : 0;
+			kernels.scale(scale, a, cj, a, cj, n);
+		}
+		long l = input.cols;
+		Metrics.stop(timer, 4 * n * l * l, 16 * n * l);
+	}
+	
+	/**
+	 * Takes the dot product of column i of a with column j of b.
+	 */
+	static double dotColumns(DenseMatrix a, int i, DenseMatrix b, int j) {
+		if(a.rows != b.rows) {
+			throw new MatrixException("Vector lengths not equal: " + a.rows + "=/=" + b.rows);
+		}
+		double sum = 0;
+		for(int r = 0; r < a.rows; r++) {
+			sum += a.get(r, i) * b.get(r, j);
+		}
+		return sum;
+	}
+	
 	/**
 	 * Returns the Givens rotation matrix with parameters (i, j, th).
 	 * @param size	total number of rows/columns in the matrix
@@ -172,14 +310,25 @@ class Matrix {
 	 */
 	static double[][] transpose(double[][] matrix) {
 		double[][] out = new double[matrix[0].length][matrix.length];
-		for(int i = 0; i < out.length; i++) {
-			for(int j = 0; j < out[0].length; j++) {
-				out[i][j] = matrix[j][i];
+		Parallel.forRange(out.length, out[0].length, (from, to) -> {
+			for(int i = from; i < to; i++) {
+				for(int j = 0; j < out[0].length; j++) {
+					out[i][j] = matrix[j][i];
+				}
 			}
-		}
+		});
 		return out;
 	}
 	
+	/**
+	 * Returns the transpose of the input matrix as a view over the same storage.
+	 * @param matrix	DenseMatrix of values
+	 * @return			the matrix transpose of matrix
+	 */
+	static DenseMatrix transpose(DenseMatrix matrix) {
+		return matrix.transpose();
+	}
+	
 	/**
 	 * Returns the sum of a and b.
 	 * @param a	double[][] matrix of values
@@ -210,11 +359,34 @@ class Matrix {
 			throw new MatrixException("Matrices not same size.");
 		}
 		double[][] out = new double[a.length][a[0].length];
-		for(int i = 0; i < out.length; i++) {
-			for(int j = 0; j < out[0].length; j++) {
-				out[i][j] = a[i][j] - b[i][j];
+		Parallel.forRange(out.length, out[0].length, (from, to) -> {
+			for(int i = from; i < to; i++) {
+				for(int j = 0; j < out[0].length; j++) {
+					out[i][j] = a[i][j] - b[i][j];
+				}
 			}
+		});
+		return out;
+	}
+	
+	/**
+	 * Returns the difference of a and b.
+	 * @param a	DenseMatrix of values
+	 * @param b	DenseMatrix of values
+	 * @return	the matrix difference a - b
+	 */
+	static DenseMatrix subtract(DenseMatrix a, DenseMatrix b) {
+		if(a.rows != b.rows || a.cols != b.cols) {
+			throw new MatrixException("Matrices not same size.");
 		}
+		DenseMatrix out = DenseMatrix.zeros(a.rows, a.cols);
+		Parallel.forRange(out.cols, out.rows, (from, to) -> {
+			for(int j = from; j < to; j++) {
+				for(int i = 0; i < out.rows; i++) {
+					out.set(i, j, a.get(i, j) - b.get(i, j));
+				}
+			}
+		});
 		return out;
 	}
 	
@@ -254,7 +426,8 @@ class Matrix {
 	
 	/**
 	 * Returns the matrix product of a and b; if the horizontal length of a is not equal to the
-	 * vertical length of b, throws an exception.
+	 * vertical length of b, throws an exception. The product is computed by the blocked kernel
+	 * in Kernels.gemm, with blocks of output columns spread over the Parallel pool.
 	 * @param a	double[][] matrix of values
 	 * @param b	double[][] matrix of values
 	 * @return	the matrix product ab
@@ -263,14 +436,36 @@ class Matrix {
 		if(a.length != b[0].length) {
 			throw new MatrixException("Matrices not compatible for multiplication.");
 		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.MULTIPLY);
 		double[][] out = new double[b.length][a[0].length];
-		for(int i = 0; i < out.length; i++) {
-			for(int j = 0; j < out[0].length; j++) {
-				double[] row = getRow(a, j);
-				double[] column = getColumn(b, i);
-				out[i][j] = dot(row, column);
-			}
+		Parallel.forRange(out.length, (long) out[0].length * a.length,
+				(from, to) -> Kernels.gemm(a, b, out, from, to));
+		long m = out[0].length;
+		long n = out.length;
+		long k = a.length;
+		Metrics.stop(timer, 2 * m * n * k, 8 * (m * k + k * n + m * n));
+		return out;
+	}
+	
+	/**
+	 * Returns the matrix product of a and b; if the number of columns of a is not equal to the
+	 * number of rows of b, throws an exception.
+	 * @param a	DenseMatrix of values
+	 * @param b	DenseMatrix of values
+	 * @return	the matrix product ab
+	 */
+	static DenseMatrix multiply(DenseMatrix a, DenseMatrix b) {
+		if(a.cols != b.rows) {
+			throw new MatrixException("Matrices not compatible for multiplication.");
 		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.MULTIPLY);
+		DenseMatrix out = DenseMatrix.zeros(a.rows, b.cols);
+		Parallel.forRange(out.cols, (long) out.rows * a.cols,
+				(from, to) -> Kernels.gemm(a, b, out, from, to));
+		long m = out.rows;
+		long n = out.cols;
+		long k = a.cols;
+		Metrics.stop(timer, 2 * m * n * k, 8 * (m * k + k * n + m * n));
 		return out;
 	}
 	
@@ -282,11 +477,31 @@ class Matrix {
 	 */
 	static double[][] scale(double[][] mat, double coeff) {
 		double[][] out = new double[mat.length][mat[0].length];
-		for(int i = 0; i < out.length; i++) {
-			for(int j = 0; j < out[0].length; j++) {
-				out[i][j] = mat[i][j] * coeff;
+		Parallel.forRange(out.length, out[0].length, (from, to) -> {
+			for(int i = from; i < to; i++) {
+				for(int j = 0; j < out[0].length; j++) {
+					out[i][j] = mat[i][j] * coeff;
+				}
 			}
-		}
+		});
+		return out;
+	}
+	
+	/**
+	 * Returns a version of mat scaled by a constant.
+	 * @param mat	input matrix
+	 * @param coeff	constant by which to scale
+	 * @return		mat scaled by coeff
+	 */
+	static DenseMatrix scale(DenseMatrix mat, double coeff) {
+		DenseMatrix out = DenseMatrix.zeros(mat.rows, mat.cols);
+		Parallel.forRange(out.cols, out.rows, (from, to) -> {
+			for(int j = from; j < to; j++) {
+				for(int i = 0; i < out.rows; i++) {
+					out.set(i, j, mat.get(i, j) * coeff);
+				}
+			}
+		});
 		return out;
 	}
 	
@@ -300,12 +515,7 @@ class Matrix {
 		if(a.length != b.length) {
 			throw new MatrixException("Vector lengths not equal: " + a.length + "=/=" + b.length);
 		}
-		double sum = 0;
-		for(int i = 0; i < a.length; i++) {
-			numMults++;
-			sum += a[i] * b[i];
-		}
-		return sum;
+		return VectorKernels.ACTIVE.dot(a, 0, b, 0, a.length);
 	}
 	
 	/**
@@ -349,9 +559,7 @@ class Matrix {
 	static double[] proj(double[] vec, double[] proj) {
 		double constant = dot(proj, vec)/dot(proj, proj);
 		double[] projection = new double[vec.length];
-		for(int i = 0; i < proj.length; i++) {
-			projection[i] = proj[i]*constant;
-		}
+		VectorKernels.ACTIVE.scale(constant, proj, 0, projection, 0, proj.length);
 		return projection;
 	}
 	
@@ -393,22 +601,3 @@ class Matrix {
 		System.out.println("");
 	}
 }
-
-/**
- * Exception class thrown when invalid matrix calculations are attempted
- */
-class MatrixException extends RuntimeException {
-	MatrixException(String string) {
-		super(string);
-	}
-}
-
-/**
- * Data holder class that contains a set of eigenvalues and their corresponding eigenvectors.
- * @author	Kushal Ranjan
- * @version 051413
- */
-class EigenSet {
-	double[] values;
-	double[][] vectors;
-}
\ No newline at end of file
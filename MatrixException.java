@@ -0,0 +1,10 @@
+/**
+ * Exception class thrown when invalid matrix calculations are attempted
+ */
+class MatrixException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	MatrixException(String string) {
+		super(string);
+	}
+}
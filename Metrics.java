@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Opt-in instrumentation of the expensive operations. For each operation, Metrics counts calls,
+ * floating point operations, bytes of matrix data touched and wall time. Counters are LongAdders,
+ * so threads of the Parallel pool and of the scoring service can record at once without
+ * contending. Every timed operation is also a JFR event, so a run started with
+ * -XX:StartFlightRecording shows the operations on its timeline.
+ *
+ * Metrics are off unless the JVM is started with -Dpca.metrics=true (PCA's --metrics option
+ * sets it). ENABLED is a compile-time constant for the JIT, so when it is false start returns
+ * null and stop returns at once, and the instrumented code is compiled as if neither call were
+ * there.
+ *
+ * Times are inclusive: a NIPALS iteration includes the gemv calls it makes. Flops and bytes
+ * are the operation's own work and leave out the instrumented operations it calls, so that no
+ * work is counted twice. Both are estimated from the dimensions of the operands: a multiply-add
+ * counts as two flops, and bytes count each double of the operands and results once, which is
+ * the least traffic to memory the operation can cause.
+ */
+final class Metrics {
+
+	static final boolean ENABLED = Boolean.getBoolean("pca.metrics");
+
+	/**
+	 * The instrumented operations.
+	 */
+	enum Op {
+		MULTIPLY("multiply"),
+		GEMV("gemv"),
+		SYRK("syrk"),
+		QR_FACTORIZE("QR factorize"),
+		EIGEN("eigendecomposition"),
+		SVD("SVD"),
+		LANCZOS("Lanczos"),
+		NIPALS_ITERATION("NIPALS iteration"),
+		NIPALS_COMPONENT("NIPALS component"),
+		TRANSFORM("transform"),
+		PARSE("parse"),
+		SAVE("save");
+
+		final String label;
+		final LongAdder calls = new LongAdder();
+		final LongAdder flops = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+
+		Op(String label) {
+			this.label = label;
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * Starts timing one call of op.
+	 * @return	the timer to pass to stop, or null if metrics are disabled
+	 */
+	static OperationEvent start(Op op) {
+		if(!ENABLED) {
+			return null;
+		}
+		OperationEvent event = new OperationEvent(op);
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Stops a timer returned by start and records its call.
+	 * @param event	the timer
+	 * @param flops	floating point operations performed
+	 * @param bytes	bytes of data read and written
+	 */
+	static void stop(OperationEvent event, long flops, long bytes) {
+		if(!ENABLED) {
+			return;
+		}
+		event.end();
+		Op op = event.op;
+		op.calls.increment();
+		op.flops.add(flops);
+		op.bytes.add(bytes);
+		op.nanos.add(System.nanoTime() - event.startNanos);
+		if(event.shouldCommit()) {
+			event.operation = op.label;
+			event.flops = flops;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records that a NIPALS component converged.
+	 * @param component		index of the component
+	 * @param iterations	number of iterations it took
+	 * @param eigenvalue	final estimate of t.t
+	 * @param residual		final relative residual of the loading (see NIPALSControl)
+	 */
+	static void nipalsConverged(int component, int iterations, double eigenvalue, double residual) {
+		if(!ENABLED) {
+			return;
+		}
+		NipalsConvergenceEvent event = new NipalsConvergenceEvent();
+		if(event.shouldCommit()) {
+			event.component = component;
+			event.iterations = iterations;
+			event.eigenvalue = eigenvalue;
+			event.residual = residual;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Resets every counter to zero.
+	 */
+	static void reset() {
+		for(Op op: Op.values()) {
+			op.calls.reset();
+			op.flops.reset();
+			op.bytes.reset();
+			op.nanos.reset();
+		}
+	}
+
+	/**
+	 * Returns a table of the counters of every operation that has been called, or an empty
+	 * string if metrics are disabled.
+	 */
+	static String report() {
+		if(!ENABLED) {
+			return "";
+		}
+		StringBuilder out = new StringBuilder(String.format("%-20s %10s %14s %14s %12s %9s%n",
+				"operation", "calls", "flops", "bytes", "ms", "GFLOP/s"));
+		for(Op op: Op.values()) {
+			long calls = op.calls.sum();
+			if(calls == 0) {
+				continue;
+			}
+			long nanos = op.nanos.sum();
+			long flops = op.flops.sum();
+			out.append(String.format("%-20s %10d %14d %14d %12.3f %9.3f%n", op.label, calls,
+					flops, op.bytes.sum(), nanos/1e6, nanos > 0 ? (double) flops/nanos : 0));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Wall time of the consecutive phases of a run, such as parsing, fitting and saving. Phases
+	 * are timed whether or not metrics are enabled, since a phase costs two clock reads; each is
+	 * also committed as a JFR event.
+	 */
+	static final class Phases {
+
+		private final List<String> names = new ArrayList<>();
+		private final List<Long> nanos = new ArrayList<>();
+		private PhaseEvent current = null;
+		private long start;
+
+		/**
+		 * Ends the current phase, if any, and starts the phase name.
+		 */
+		void begin(String name) {
+			end();
+			current = new PhaseEvent();
+			current.phase = name;
+			current.begin();
+			start = System.nanoTime();
+		}
+
+		/**
+		 * Ends the current phase, if any.
+		 */
+		void end() {
+			if(current == null) {
+				return;
+			}
+			names.add(current.phase);
+			nanos.add(System.nanoTime() - start);
+			current.commit();
+			current = null;
+		}
+
+		/**
+		 * Ends the current phase and returns the time of each phase and their total.
+		 */
+		String report() {
+			end();
+			StringBuilder out = new StringBuilder(String.format("%-20s %12s%n", "phase", "ms"));
+			long total = 0;
+			for(int i = 0; i < names.size(); i++) {
+				out.append(String.format("%-20s %12.3f%n", names.get(i), nanos.get(i)/1e6));
+				total += nanos.get(i);
+			}
+			out.append(String.format("%-20s %12.3f%n", "total", total/1e6));
+			return out.toString();
+		}
+	}
+
+	/**
+	 * JFR event for one call of an instrumented operation.
+	 */
+	@Name("pca.Operation")
+	@Label("PCA Operation")
+	@Category("PCA")
+	static final class OperationEvent extends Event {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Floating Point Operations")
+		long flops;
+
+		@Label("Bytes Touched")
+		long bytes;
+
+		final transient Op op;
+		final transient long startNanos = System.nanoTime();
+
+		OperationEvent(Op op) {
+			this.op = op;
+		}
+	}
+
+	/**
+	 * JFR event recorded when a NIPALS component converges.
+	 */
+	@Name("pca.NipalsConvergence")
+	@Label("NIPALS Convergence")
+	@Category("PCA")
+	@Description("A principal component found by NIPALS")
+	static final class NipalsConvergenceEvent extends Event {
+
+		@Label("Component")
+		int component;
+
+		@Label("Iterations")
+		int iterations;
+
+		@Label("Eigenvalue")
+		double eigenvalue;
+
+		@Label("Residual")
+		double residual;
+	}
+
+	/**
+	 * JFR event for one phase of a PCA run.
+	 */
+	@Name("pca.Phase")
+	@Label("PCA Phase")
+	@Category("PCA")
+	static final class PhaseEvent extends Event {
+
+		@Label("Phase")
+		String phase;
+	}
+}
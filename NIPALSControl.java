@@ -0,0 +1,116 @@
+/**
+ * Settings and convergence report of a NIPALS fit (Data.NIPALSAlg and SparsePCA.NIPALSAlg).
+ * Iteration on a component stops once the residual of its loading p, the unit vector whose
+ * scores are t = Ep, falls to tolerance:
+ * |(E^T)Ep - (t.t)p| / (t.t) <= tolerance, where E is the residual matrix. The residual is
+ * relative to the component's own eigenvalue, so the same tolerance means the same accuracy
+ * whatever the scale of the data. It costs no extra pass over E: (E^T)Ep is the product the next
+ * iteration starts from. Iteration also stops after maxIterations, whether or not the residual
+ * has fallen that far.
+ *
+ * A fit of data that changes little between runs can start from the loadings of the previous
+ * fit. They are first rotated onto the Ritz vectors of the covariance matrix in their span (one
+ * product of the data with all of them and a small eigenproblem), which removes the mixing of
+ * nearby components that the power iteration of NIPALS would otherwise take many iterations to
+ * undo. The rotated loadings replace the usual starting vector (a column of E), so a component
+ * that has barely moved converges in a few iterations.
+ */
+class NIPALSControl {
+
+	double[][] initialLoadings; //initialLoadings[c] starts component c; null for a cold start
+	double tolerance = Data.NIPALS_TOLERANCE;
+	int maxIterations = Data.NIPALS_MAX_ITERATIONS;
+	int[] iterations; //Set by the fit: iterations taken by each component
+	double[] residuals; //Set by the fit: final relative residual of each component
+
+	/**
+	 * Returns a control that starts the fit from the loadings of model.
+	 */
+	static NIPALSControl warmStart(PCAModel model) {
+		NIPALSControl control = new NIPALSControl();
+		control.initialLoadings = model.loadings().toColumns();
+		return control;
+	}
+
+	/**
+	 * Returns the starting loadings of the first components: the Ritz vectors of (X^T)X in the
+	 * span of the initial loadings, in decreasing order of their Ritz values, each with the sign
+	 * of the initial loading in its place. Directions on which X vanishes are left out. Empty for
+	 * a cold start.
+	 * @param cols		number of variables of X
+	 * @param product	computes XV for a matrix V of cols rows
+	 * @throws MatrixException	if the initial loadings do not have cols entries
+	 */
+	double[][] startingLoadings(int cols, java.util.function.UnaryOperator<DenseMatrix> product) {
+		if(initialLoadings == null || initialLoadings.length == 0) {
+			return new double[0][];
+		}
+		for(double[] loading: initialLoadings) {
+			if(loading.length != cols) {
+				throw new MatrixException("Initial loadings have " + loading.length
+						+ " variables; the data has " + cols + ".");
+			}
+		}
+		DenseMatrix V = DenseMatrix.fromColumns(initialLoadings);
+		Matrix.orthonormalizeColumns(V);
+		DenseMatrix W = product.apply(V);
+		DenseMatrix H = DenseMatrix.zeros(V.cols, V.cols); //(W^T)W = (V^T)(X^T)XV
+		Kernels.syrk(W, H);
+		Kernels.mirrorUpper(H);
+		EigenSet ritz = SymmetricEigensolver.decompose(H);
+		int count = 0;
+		while(count < V.cols && ritz.values[count] > 0) {
+			count++;
+		}
+		if(count == 0) {
+			return new double[0][];
+		}
+		DenseMatrix Y = DenseMatrix.fromColumns(java.util.Arrays.copyOf(ritz.vectors, count));
+		double[][] out = Matrix.multiply(V, Y).toColumns();
+		for(int c = 0; c < count && c < initialLoadings.length; c++) {
+			if(Matrix.dot(out[c], initialLoadings[c]) < 0) {
+				//Keep the signs of the previous fit, so that refits give comparable scores
+				VectorKernels.ACTIVE.scale(-1, out[c], 0, out[c], 0, cols);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Allocates the report for numComponents components.
+	 */
+	void begin(int numComponents) {
+		iterations = new int[numComponents];
+		residuals = new double[numComponents];
+	}
+
+	/**
+	 * Returns one line per component with its iterations and residual, noting components that
+	 * stopped at maxIterations without converging.
+	 */
+	String report() {
+		StringBuilder out = new StringBuilder();
+		for(int c = 0; c < iterations.length; c++) {
+			String note = residuals[c] > tolerance ? " (not converged)" : "";
+			out.append(String.format("Component %d: %d iterations, residual %.2e%s%n", c + 1,
+					iterations[c], residuals[c], note));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Returns |q - lambda p| / lambda, the relative residual of the unit vector p when
+	 * q = (E^T)Ep and lambda = p.q, or 0 if lambda is 0.
+	 */
+	static double residual(double[] q, double lambda, double[] p) {
+		if(lambda == 0) {
+			return 0;
+		}
+		double sum = 0;
+		for(int j = 0; j < p.length; j++) {
+			double d = q[j] - lambda * p[j];
+			sum += d * d;
+		}
+		return Math.sqrt(sum)/lambda;
+	}
+}
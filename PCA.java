@@ -4,10 +4,10 @@ import java.io.*;
  * QR algorithm is used to find the eigenvalues and orthonormal eigenvectors of the covariance
  * matrix of the data set. The eigenvectors corresponding to the largest eigenvalues are the
  * principal components. The data file should be in the same directory as the PCA.class file.
- * All numbers should be tab-delimited. The first line of the data should be two numbers: the 
- * number of rows R followed by the number of columns C. After that, there should be R lines of 
- * C tab-delimited values. The columns would most likely represent the dimensions of measure; the
- * rows would each represent a single data point.
+ * Numbers may be separated by tabs, commas, semicolons or spaces. The first line of the data
+ * should be two numbers: the number of rows R followed by the number of columns C. After that,
+ * there should be R lines of C values. The columns would most likely represent the dimensions
+ * of measure; the rows would each represent a single data point.
  * @author	Kushal Ranjan
  * @version	051513
  */
@@ -16,20 +16,266 @@ public class PCA {
 	/**
 	 * Performs PCA on a set of data and prints the resulting transformed data set.
 	 * @param args	args[0] is the name of the file containing the data. args[1] is an integer
-	 * 				giving the number of desired principal components.
+	 * 				giving the number of desired principal components. These may be preceded by
+	 * 				options: "--threads <n>" sets the number of threads used for matrix
+	 * 				operations, "--stream" computes the PCA in two passes over the file without
+	 * 				loading it, and "--chunk <rows>" sets the rows held in memory when streaming.
+	 * 				"--convert <text file> <binary file>" converts a text data file to the binary
+	 * 				format and exits. Files in the binary format are memory-mapped, not parsed.
+	 * 				"--binary-out" writes the scores in the binary format instead of as text.
+	 * 				"--method <nipals|subspace|randomized|eigen|svd>" selects the algorithm for
+	 * 				in-memory data: NIPALS (the default), block subspace iteration, the faster,
+	 * 				approximate randomized SVD, eigendecomposition of the covariance matrix
+	 * 				or, with fewer data points than variables, of the Gram matrix, or the exact
+	 * 				SVD of the data by the one-sided Jacobi method.
+	 * 				"--incremental <checkpoint>" loads the model saved in the checkpoint file (if
+	 * 				it exists), updates it with the data file, saves it again and writes the
+	 * 				scores of the data file against the updated components.
+	 * 				"--save-model <file>" saves the fitted means, loadings and eigenvalues.
+	 * 				"--model <file>" scores the data file against a saved model without
+	 * 				fitting; args[1] is then omitted.
+	 * 				"--serve <file>" serves a saved model over HTTP on the loopback interface,
+	 * 				on the port given by "--port <n>" (8080 by default); no data file is given.
+	 * 				"--metrics" turns on the counters of Metrics, which are printed after the
+	 * 				time taken by each phase of the run.
+	 * 				"--float" stores the data table in single precision, for in-memory fits
+	 * 				and for --convert, which then writes a FLOAT32 file. Binary FLOAT32 files
+	 * 				are always used in single precision.
+	 * 				Data files in the Matrix Market coordinate format are read as sparse
+	 * 				tables and fitted by NIPALS with implicit centering (SparsePCA).
+	 * 				NIPALS fits accept "--warm-start <file>", which starts each component from
+	 * 				the loadings of a saved model, "--tolerance <t>", the relative residual at
+	 * 				which a component has converged, and "--max-iterations <n>", the most
+	 * 				iterations for one component (see NIPALSControl). They print the iterations
+	 * 				and residual of each component.
+	 * 				"--partial <stats file>" scans the data file (args[1] is then omitted) and
+	 * 				saves its statistics for a later merge: exact ones, or with
+	 * 				"--sketch <rank>" a low-rank sketch for data with many variables.
+	 * 				"--merge" combines the statistics files args[1...] and fits args[0]
+	 * 				components to all the data they cover; "--save-stats <file>" also saves
+	 * 				the merged statistics (see ShardedPCA).
 	 */
 	public static void main(String[] args) {
-		if(args.length != 2) {
-			System.out.println("Invalid number of arguments. Arguments should be <filename> <# components>.");
-			System.exit(0);
+		int argPos = 0;
+		boolean stream = false;
+		int chunkRows = StreamingPCA.DEFAULT_CHUNK_ROWS;
+		String[] convert = null;
+		boolean binaryOut = false;
+		String method = "nipals";
+		String checkpoint = null;
+		String saveModel = null;
+		String modelFile = null;
+		String serveModel = null;
+		int port = 8080;
+		boolean single = false;
+		String warmStart = null;
+		NIPALSControl control = new NIPALSControl();
+		String partial = null;
+		int sketchRank = 0;
+		boolean merge = false;
+		String saveStats = null;
+		try {
+			for(; argPos < args.length && args[argPos].startsWith("--"); argPos++) {
+				String option = args[argPos];
+				if(option.equals("--threads")) {
+					Parallel.setThreads(Integer.parseInt(args[++argPos]));
+				} else if(option.equals("--stream")) {
+					stream = true;
+				} else if(option.equals("--chunk")) {
+					chunkRows = Integer.parseInt(args[++argPos]);
+				} else if(option.equals("--binary-out")) {
+					binaryOut = true;
+				} else if(option.equals("--method")) {
+					method = args[++argPos];
+					if(!method.equals("nipals") && !method.equals("subspace")
+							&& !method.equals("randomized") && !method.equals("eigen")
+							&& !method.equals("svd")) {
+						usage();
+					}
+				} else if(option.equals("--incremental")) {
+					checkpoint = args[++argPos];
+				} else if(option.equals("--save-model")) {
+					saveModel = args[++argPos];
+				} else if(option.equals("--model")) {
+					modelFile = args[++argPos];
+				} else if(option.equals("--serve")) {
+					serveModel = args[++argPos];
+				} else if(option.equals("--port")) {
+					port = Integer.parseInt(args[++argPos]);
+				} else if(option.equals("--warm-start")) {
+					warmStart = args[++argPos];
+				} else if(option.equals("--tolerance")) {
+					control.tolerance = Double.parseDouble(args[++argPos]);
+				} else if(option.equals("--max-iterations")) {
+					control.maxIterations = Integer.parseInt(args[++argPos]);
+				} else if(option.equals("--partial")) {
+					partial = args[++argPos];
+				} else if(option.equals("--sketch")) {
+					sketchRank = Integer.parseInt(args[++argPos]);
+				} else if(option.equals("--merge")) {
+					merge = true;
+				} else if(option.equals("--save-stats")) {
+					saveStats = args[++argPos];
+				} else if(option.equals("--float")) {
+					single = true;
+				} else if(option.equals("--metrics")) {
+					System.setProperty("pca.metrics", "true"); //Read when Metrics is loaded
+				} else if(option.equals("--convert")) {
+					convert = new String[] {args[++argPos], args[++argPos]};
+				} else {
+					usage();
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			usage();
+		}
+		args = java.util.Arrays.copyOfRange(args, argPos, args.length);
+		Metrics.Phases phases = new Metrics.Phases();
+		if(convert != null) {
+			try {
+				BinaryMatrixFile.convert(convert[0], convert[1], chunkRows, single);
+			} catch(IOException e) {
+				System.err.println("Error converting data file: " + e.getMessage());
+			}
+			return;
+		}
+		if(serveModel != null) {
+			if(args.length != 0 || single) {
+				usage();
+			}
+			serve(serveModel, port);
+			return;
+		}
+		if(partial != null || merge) {
+			if((partial != null) == merge || (partial != null && args.length != 1)
+					|| (merge && args.length < 2) || (partial == null && sketchRank != 0)
+					|| (!merge && (saveStats != null || saveModel != null)) || stream
+					|| checkpoint != null || modelFile != null || !method.equals("nipals")
+					|| single || warmStart != null) {
+				usage();
+			}
+			try {
+				if(partial != null) {
+					phases.begin("scan");
+					ShardedPCA.partial(args[0], partial, sketchRank, chunkRows);
+					phases.end();
+					System.out.println("Statistics of " + args[0] + " saved to " + partial + ".");
+				} else {
+					phases.begin("merge and fit");
+					PCAModel model = ShardedPCA.merge(
+							java.util.Arrays.copyOfRange(args, 1, args.length),
+							Integer.parseInt(args[0]), saveStats);
+					phases.begin("save model");
+					saveModel(model, saveModel);
+					phases.end();
+					double[] variances = model.eigenvalues();
+					for(int c = 0; c < variances.length; c++) {
+						System.out.println("Component " + (c + 1) + ": variance " + variances[c]);
+					}
+				}
+			} catch(IOException e) {
+				System.err.println("Error " + (merge ? "merging" : "saving") + " statistics: "
+						+ e.getMessage());
+			}
+			printReport(phases);
+			return;
+		}
+		if(modelFile != null) {
+			if(args.length != 1 || stream || checkpoint != null || saveModel != null
+					|| !method.equals("nipals") || single) {
+				usage();
+			}
+			try {
+				phases.begin("load model");
+				PCAModel model = PCAModel.load(modelFile);
+				phases.begin("score");
+				model.transform(args[0], processedFilename(args[0], binaryOut), binaryOut,
+						chunkRows);
+			} catch(IOException e) {
+				System.err.println("Error scoring data file: " + e.getMessage());
+			}
+			printReport(phases);
+			return;
+		}
+		if(args.length != 2 || (stream && (!method.equals("nipals") || single))
+				|| (checkpoint != null && (stream || !method.equals("nipals") || single))
+				|| ((stream || checkpoint != null || !method.equals("nipals"))
+						&& (warmStart != null || control.tolerance != Data.NIPALS_TOLERANCE
+						|| control.maxIterations != Data.NIPALS_MAX_ITERATIONS))) {
+			usage();
 		}
-		double[][] data = null;
+		if(warmStart != null) {
+			try {
+				phases.begin("load model");
+				PCAModel start = PCAModel.load(warmStart);
+				double tolerance = control.tolerance;
+				int maxIterations = control.maxIterations;
+				control = NIPALSControl.warmStart(start);
+				control.tolerance = tolerance;
+				control.maxIterations = maxIterations;
+			} catch(IOException e) {
+				System.err.println("Error loading warm start model: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if(checkpoint != null) {
+			try {
+				phases.begin("update");
+				IncrementalPCA model = updateIncremental(checkpoint, args[0],
+						Integer.parseInt(args[1]), chunkRows);
+				phases.begin("score");
+				model.model().transform(args[0], processedFilename(args[0], binaryOut), binaryOut,
+						chunkRows);
+				phases.begin("save model");
+				saveModel(model.model(), saveModel);
+				phases.end();
+				System.out.println(model.count() + " data points absorbed by " + checkpoint + ".");
+			} catch(IOException e) {
+				System.err.println("Error updating incremental model: " + e.getMessage());
+			}
+			printReport(phases);
+			return;
+		}
+		if(stream) {
+			try {
+				phases.begin("fit");
+				PCAModel model = StreamingPCA.fit(args[0], Integer.parseInt(args[1]), chunkRows);
+				phases.begin("score");
+				model.transform(args[0], processedFilename(args[0], binaryOut), binaryOut,
+						chunkRows);
+				phases.begin("save model");
+				saveModel(model, saveModel);
+			} catch(IOException e) {
+				System.err.println("Error streaming data file: " + e.getMessage());
+			}
+			printReport(phases);
+			return;
+		}
+		DenseMatrix data = null;
+		phases.begin("parse");
 		try {
-			 data = parseData(args[0]);
-		} catch(ArrayIndexOutOfBoundsException e) {
-			System.err.println("Malformed data table.");
+			if(SparseMatrixFile.isSparse(args[0])) {
+				if(!method.equals("nipals") || single) {
+					usage();
+				}
+				fitSparse(SparseMatrixFile.read(args[0]), args[0], Integer.parseInt(args[1]),
+						control, binaryOut, saveModel, phases);
+				printReport(phases);
+				return;
+			} else if(BinaryMatrixFile.isBinary(args[0])) {
+				data = BinaryMatrixFile.map(args[0]);
+				if(single) {
+					data = data.toSinglePrecision();
+				}
+			} else {
+				data = TextDataParser.parse(args[0], single);
+			}
+		} catch(FileNotFoundException | java.nio.file.NoSuchFileException e) {
+			System.err.println("File " + args[0] + " not found.");
+			System.exit(1);
 		} catch(IOException e) {
-			System.err.println("Malformed data file.");
+			System.err.println("Malformed data file: " + e.getMessage());
+			System.exit(1);
 		}
 		int numComps = Integer.parseInt(args[1]);
 		
@@ -37,81 +283,175 @@ public class PCA {
 //		double[][] results = Data.principalComponentAnalysis(data, numComps);
 //		System.out.println(numComps + " principal components:");
 //		Matrix.print(results);
-//		saveResults(results, args[0]);
+//		saveResults(results, args[0], binaryOut);
 		
-		double[][] scores = Data.PCANIPALS(data, numComps);
-//		System.out.println("Scores:");
-//		Matrix.print(scores);
-		saveResults(scores, args[0]);
+		phases.begin("center");
+		Data fitted = new Data(data);
+		double[] means = fitted.center();
+		phases.begin("fit");
+		double[][][] PCs = fitted.fit(method, numComps, control);
+		if(method.equals("nipals")) {
+			System.out.print(control.report());
+		} else if(method.equals("eigen")) {
+			int side = Math.min(data.rows, data.cols);
+			System.out.println("Eigendecomposition of the " + side + " x " + side
+					+ (fitted.usedGramMatrix ? " Gram" : " covariance")
+					+ " matrix.");
+		}
+		phases.begin("save scores");
+		saveResults(PCs, args[0], binaryOut);
+		phases.begin("save model");
+		try {
+			saveModel(PCAModel.fromComponents(means, PCs, data.rows), saveModel);
+		} catch(IOException e) {
+			System.err.println("Error saving model: " + e.getMessage());
+		}
 		
-		System.out.println(Matrix.numMults + " multiplications performed.");
+		printReport(phases);
 	}
 	
 	/**
-	 * Uses the file given by filename to construct a table for use by the application.
-	 * All numbers should be tab-delimited.
-	 * The first line of the data should be two numbers: the number of rows R followed by the
-	 * number of columns C. After that, there should be R lines of C tab-delimited values.
-	 * @param filename	the name of the file containing the data
-	 * @return			a double[][] containing the data in filename
-	 * @throws IOException	if an error occurs while reading the file
+	 * Fits the sparse data table x by NIPALS as control describes, without centering or
+	 * densifying it, then saves the scores and, if modelFile is not null, the model.
 	 */
-	private static double[][] parseData(String filename) throws IOException{
-		BufferedReader in = null;
+	private static void fitSparse(SparseMatrix x, String filename, int numComps,
+			NIPALSControl control, boolean binaryOut, String modelFile, Metrics.Phases phases) {
+		phases.begin("center");
+		double[] means = x.columnMeans();
+		phases.begin("fit");
+		double[][][] PCs = SparsePCA.NIPALSAlg(x, means, numComps, control);
+		System.out.print(control.report());
+		phases.begin("save scores");
+		saveResults(PCs, filename, binaryOut);
+		phases.begin("save model");
 		try {
-			in = new BufferedReader(new FileReader(new File(filename)));
-		} catch(FileNotFoundException e) {
-			System.err.println("File " + filename + " not found.");
-		}
-		String firstLine = in.readLine();
-		String[] dims = firstLine.split(","); // <# points> <#dimensions>
-		double[][] data = new double[Integer.parseInt(dims[1])][Integer.parseInt(dims[0])];
-		for(int j = 0; j < data[0].length; j++) {
-			String text = in.readLine();
-			String[] vals = text.split(",");
-			for(int i = 0; i < data.length; i++)  {
-				data[i][j] = Double.parseDouble(vals[i]);
+			saveModel(PCAModel.fromComponents(means, PCs, x.rows), modelFile);
+		} catch(IOException e) {
+			System.err.println("Error saving model: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Prints the time taken by each phase of the run, followed by the Metrics counters if they
+	 * are enabled.
+	 */
+	private static void printReport(Metrics.Phases phases) {
+		System.out.print(phases.report());
+		System.out.print(Metrics.report());
+	}
+	
+	/**
+	 * Loads the incremental model in checkpoint, or starts a new one if the file does not exist,
+	 * updates it with the data in filename and saves it back to checkpoint.
+	 * @throws IOException	if the checkpoint does not match the data or a file cannot be used
+	 */
+	private static IncrementalPCA updateIncremental(String checkpoint, String filename,
+			int numComps, int chunkRows) throws IOException {
+		IncrementalPCA model;
+		if(new File(checkpoint).exists()) {
+			model = IncrementalPCA.load(checkpoint);
+			if(model.numComponents != numComps) {
+				throw new IOException(checkpoint + " keeps " + model.numComponents
+						+ " components, not " + numComps + ".");
+			}
+		} else {
+			try(ChunkedDataReader in = new ChunkedDataReader(filename)) {
+				model = new IncrementalPCA(in.cols, numComps);
 			}
 		}
+		model.update(filename, chunkRows);
+		model.save(checkpoint);
+		return model;
+	}
+	
+	/**
+	 * Starts a ScoringService for the model saved in filename and serves it over HTTP. The
+	 * server keeps running after main returns; when the process is stopped the service is closed
+	 * and the latency percentiles are printed.
+	 */
+	private static void serve(String filename, int port) {
 		try {
-			in.close();
+			ScoringService service = new ScoringService(PCAModel.load(filename));
+			com.sun.net.httpserver.HttpServer server = service.serve(port);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				service.close();
+				System.out.print(service.latencies().summary());
+				System.out.print(Metrics.report());
+			}));
+			System.out.println("Serving " + filename + " at http://"
+					+ server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+					+ "/score");
 		} catch(IOException e) {
-			System.err.println(e);
+			System.err.println("Error starting scoring service: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Saves model to filename, unless filename is null.
+	 */
+	private static void saveModel(PCAModel model, String filename) throws IOException {
+		if(filename != null) {
+			model.save(filename);
 		}
-		return data;
 	}
 	
 	/**
-	 * Saves the results of PCA to a file. The filename has "_processed" appended to it before
-	 * the extension.
-	 * @param results	double[][] of PCA results
+	 * Prints the accepted arguments and exits.
+	 */
+	private static void usage() {
+		System.out.println("Invalid number of arguments. Arguments should be "
+				+ "[--threads <n>] [--metrics] [--float] "
+				+ "[--stream [--chunk <rows>] | --method <nipals|subspace|randomized|eigen|svd> "
+				+ "| --incremental <checkpoint>] "
+				+ "[--warm-start <file>] [--tolerance <t>] [--max-iterations <n>] "
+				+ "[--save-model <file>] [--binary-out] <filename> "
+				+ "<# components>, or "
+				+ "--model <file> [--binary-out] <filename>, or "
+				+ "--partial <stats file> [--sketch <rank>] [--chunk <rows>] <filename>, or "
+				+ "--merge [--save-stats <file>] [--save-model <file>] <# components> "
+				+ "<stats file>..., or "
+				+ "--serve <file> [--port <n>], or "
+				+ "--convert <text file> <binary file>.");
+		System.exit(0);
+	}
+	
+	/**
+	 * Saves the scores of fitted components to a file, a row at a time straight from the score
+	 * vectors. The filename has "_processed" appended to it before the extension.
+	 * @param PCs		PCs[c] = {scores, loadings} of component c, as returned by Data.fit
+	 * @param filename	original filename of data
+	 * @param binary	true to write the binary matrix format instead of text
+	 */
+	private static void saveResults(double[][][] PCs, String filename, boolean binary) {
+		try(ScoreWriter out = ScoreWriter.open(processedFilename(filename, binary), PCs.length,
+				binary)) {
+			out.write(PCs);
+		} catch(IOException e) {
+			System.err.println("Error trying to write new file: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the name of the results file for filename, which has "_processed" appended to it
+	 * before the extension. Binary results always have the extension ".bin". Text results keep
+	 * the extension of a text data file, but a binary or Matrix Market data file gets ".txt":
+	 * its own extension would claim the wrong format, and "_processed.bin" is the name of binary
+	 * results.
 	 * @param filename	original filename of data
+	 * @param binary	true if the results are written in the binary matrix format
+	 * @throws IOException	if the data file cannot be read
 	 */
-	private static void saveResults(double[][] results, String filename) {
+	private static String processedFilename(String filename, boolean binary) throws IOException {
 		String[] filenameComps = filename.split("\\.");
 		String newFilename = filenameComps[0] + "_processed";
-		if(filenameComps.length == 2) {
+		if(binary) {
+			newFilename += ".bin";
+		} else if(BinaryMatrixFile.isBinary(filename) || SparseMatrixFile.isSparse(filename)) {
+			newFilename += ".txt";
+		} else if(filenameComps.length == 2) {
 			newFilename += "." + filenameComps[1]; //Add filename extension
 		}
-		BufferedWriter out = null;
-		try {
-			out = new BufferedWriter(new FileWriter(new File(newFilename)));
-		} catch(IOException e) {
-			System.err.println("Error trying to write new file.");
-		}
-		for(int i = 0; i < results[0].length; i++) {
-			for(int j = 0; j < results.length; j++) {
-				try {
-					out.write("" + results[j][i]);
-					if(j != results.length - 1) {
-						out.write(",");
-					} else {
-						out.write("\n");
-					}
-				} catch(IOException e) {
-					System.err.println("Error trying to write new file.");
-				}
-			}
-		}
+		return newFilename;
 	}
 }
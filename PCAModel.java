@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A fitted PCA model: the mean of each variable, the loadings of each principal component and
+ * the variance (eigenvalue) each component explains. A model is immutable. It can be saved to a
+ * compact binary file and loaded again, so that new data can be scored against it in one pass
+ * without refitting. Because nothing in a model changes after construction, one model can be
+ * shared by any number of threads; project touches no shared state at all.
+ *
+ * The binary file is a 32-byte little-endian header (MAGIC, VERSION, the number of variables p,
+ * the number of components k, and padding) followed by the p means, the k eigenvalues and the
+ * p x k loadings in column-major order, all as doubles.
+ */
+final class PCAModel {
+
+	static final int MAGIC = 0x4C444D50; //"PMDL" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int TRANSFORM_ROWS = 4096; //Data points centered and projected at a time
+
+	private final double[] means;
+	private final DenseMatrix loadings; //p x k; column c is the cth principal component
+	private final double[] eigenvalues;
+
+	/**
+	 * Constructs a model from copies of its parts.
+	 * @param means			mean of each variable
+	 * @param loadings		p x k matrix whose columns are the principal components
+	 * @param eigenvalues	variance explained by each component
+	 */
+	PCAModel(double[] means, DenseMatrix loadings, double[] eigenvalues) {
+		if(loadings.rows != means.length || loadings.cols != eigenvalues.length) {
+			throw new MatrixException("Model dimensions do not agree.");
+		}
+		this.means = means.clone();
+		this.loadings = loadings.copy();
+		this.eigenvalues = eigenvalues.clone();
+	}
+
+	/**
+	 * Builds a model from the output of NIPALSAlg, subspaceAlg or randomizedAlg.
+	 * @param means		the means that were subtracted from the data before fitting
+	 * @param PCA		PCA[c] = {scores, loadings} of component c
+	 * @param numPoints	number of data points fitted
+	 */
+	static PCAModel fromComponents(double[] means, double[][][] PCA, int numPoints) {
+		double[][] loadings = new double[PCA.length][];
+		double[] eigenvalues = new double[PCA.length];
+		for(int c = 0; c < PCA.length; c++) {
+			loadings[c] = PCA[c][1];
+			eigenvalues[c] = Matrix.dot(PCA[c][0], PCA[c][0])/(numPoints - 1);
+		}
+		return new PCAModel(means, DenseMatrix.wrap(flatten(loadings, means.length), means.length,
+				PCA.length), eigenvalues);
+	}
+
+	/**
+	 * Concatenates columns of length rows into one column-major array.
+	 */
+	private static double[] flatten(double[][] columns, int rows) {
+		double[] out = new double[columns.length * rows];
+		for(int c = 0; c < columns.length; c++) {
+			System.arraycopy(columns[c], 0, out, c * rows, rows);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the number of variables the model expects.
+	 */
+	int numVariables() {
+		return means.length;
+	}
+
+	/**
+	 * Returns the number of principal components.
+	 */
+	int numComponents() {
+		return eigenvalues.length;
+	}
+
+	/**
+	 * Returns the mean of each variable.
+	 */
+	double[] means() {
+		return means.clone();
+	}
+
+	/**
+	 * Returns the p x k matrix whose columns are the principal components.
+	 */
+	DenseMatrix loadings() {
+		return loadings.copy();
+	}
+
+	/**
+	 * Returns the variance explained by each component.
+	 */
+	double[] eigenvalues() {
+		return eigenvalues.clone();
+	}
+
+	/**
+	 * Computes the scores of new data against the components. The data is not modified: it is
+	 * centered TRANSFORM_ROWS points at a time into a buffer, and each buffer is multiplied by the
+	 * loadings with the blocked GEMM kernel. Blocks are spread over the Parallel pool.
+	 * @param rows	data; each row is a data point with numVariables() columns
+	 * @return		n x k matrix of scores; row j holds the scores of data point j
+	 */
+	DenseMatrix transform(DenseMatrix rows) {
+		if(rows.cols != means.length) {
+			throw new MatrixException("Expected " + means.length + " variables per point.");
+		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.TRANSFORM);
+		int n = rows.rows;
+		int p = means.length;
+		DenseMatrix out = DenseMatrix.zeros(n, eigenvalues.length);
+		int blocks = (n + TRANSFORM_ROWS - 1) / TRANSFORM_ROWS;
+		Parallel.forRange(blocks, (long) TRANSFORM_ROWS * p * eigenvalues.length, (from, to) -> {
+			DenseMatrix buffer = DenseMatrix.zeros(Math.min(n, TRANSFORM_ROWS), p);
+			for(int b = from; b < to; b++) {
+				int r0 = b * TRANSFORM_ROWS;
+				int count = Math.min(TRANSFORM_ROWS, n - r0);
+				project(rows.submatrix(r0, 0, count, p), buffer,
+						out.submatrix(r0, 0, count, eigenvalues.length));
+			}
+		});
+		long k = eigenvalues.length;
+		Metrics.stop(timer, (2 * k + 1) * n * p, 8 * ((long) n * p + p * k + n * k));
+		return out;
+	}
+
+	/**
+	 * Computes the scores of rows into out on the calling thread. Nothing shared is read or
+	 * written apart from the model itself, so any number of threads may call this at once.
+	 * @param rows		data; each row is a data point with numVariables() columns
+	 * @param buffer	work matrix with at least rows.rows rows and numVariables() columns
+	 * @param out		rows.rows x numComponents() matrix; overwritten with the scores
+	 */
+	void project(DenseMatrix rows, DenseMatrix buffer, DenseMatrix out) {
+		int p = means.length;
+		DenseMatrix centered = buffer.submatrix(0, 0, rows.rows, p);
+		for(int i = 0; i < p; i++) {
+			for(int j = 0; j < rows.rows; j++) {
+				centered.set(j, i, rows.get(j, i) - means[i]);
+			}
+		}
+		Kernels.gemm(centered, loadings, out);
+	}
+
+	/**
+	 * Scores every data point in a file against the components in one pass, writing the scores
+	 * of each block as soon as they are computed. Text files are read chunkRows rows at a time;
+	 * binary files are memory-mapped.
+	 * @param filename		the name of the file containing the data
+	 * @param outFilename	the name of the file to write
+	 * @param binary		true to write the binary matrix format, false to write one line of
+	 * 						comma-separated scores per data point
+	 * @param chunkRows		number of rows scored at a time
+	 * @throws IOException	if an error occurs while reading or writing
+	 */
+	void transform(String filename, String outFilename, boolean binary, int chunkRows)
+			throws IOException {
+		if(BinaryMatrixFile.isBinary(filename)) {
+			DenseMatrix data = BinaryMatrixFile.map(filename);
+			checkColumns(filename, data.cols);
+			try(ScoreWriter out = ScoreWriter.open(outFilename, eigenvalues.length, binary)) {
+				for(int r0 = 0; r0 < data.rows; r0 += chunkRows) {
+					int count = Math.min(chunkRows, data.rows - r0);
+					out.write(transform(data.submatrix(r0, 0, count, data.cols)));
+				}
+			}
+			return;
+		}
+		try(ChunkedDataReader in = new ChunkedDataReader(filename);
+				ScoreWriter out = ScoreWriter.open(outFilename, eigenvalues.length, binary)) {
+			checkColumns(filename, in.cols);
+			DenseMatrix buffer = DenseMatrix.zeros(Math.max(1, Math.min(chunkRows, in.rows)), in.cols);
+			for(DenseMatrix block = in.next(buffer); block != null; block = in.next(buffer)) {
+				out.write(transform(block));
+			}
+		}
+	}
+
+	/**
+	 * Throws an IOException if a data file does not have one column per variable.
+	 */
+	private void checkColumns(String filename, int cols) throws IOException {
+		if(cols != means.length) {
+			throw new IOException(filename + " has " + cols + " columns; the model has "
+					+ means.length + " variables.");
+		}
+	}
+
+	/**
+	 * Saves the model in the binary model format. An interrupted save never replaces a good
+	 * model file with a partial one.
+	 * @param filename	the name of the model file
+	 * @throws IOException	if the file cannot be written or the model is too large for one file
+	 */
+	void save(String filename) throws IOException {
+		int p = means.length;
+		int k = eigenvalues.length;
+		if(fileBytes(p, k) > Integer.MAX_VALUE) {
+			throw new IOException("A model of " + p + " variables and " + k
+					+ " components is too large to save.");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int) fileBytes(p, k)).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(p).putInt(k).putLong(0).putLong(0);
+		for(double mean: means) {
+			buf.putDouble(mean);
+		}
+		for(double value: eigenvalues) {
+			buf.putDouble(value);
+		}
+		for(int c = 0; c < k; c++) {
+			for(int i = 0; i < p; i++) {
+				buf.putDouble(loadings.get(i, c));
+			}
+		}
+		buf.flip();
+		BinaryMatrixFile.writeAtomically(filename, buf);
+	}
+
+	/**
+	 * Returns the size in bytes of the file of a model of p variables and k components.
+	 */
+	static long fileBytes(int p, int k) {
+		return HEADER_BYTES + ((long) p + k + (long) p * k) * Double.BYTES;
+	}
+
+	/**
+	 * Loads a model saved by save.
+	 * @param filename	the name of the model file
+	 * @return			the model
+	 * @throws IOException	if the file cannot be read or is not a model file
+	 */
+	static PCAModel load(String filename) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		if(buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+			throw new IOException(filename + " is not a PCA model file.");
+		}
+		if(buf.getInt() != VERSION) {
+			throw new IOException("Unsupported model version " + buf.getInt(4));
+		}
+		int p = buf.getInt();
+		int k = buf.getInt();
+		buf.position(HEADER_BYTES);
+		if(p < 1 || k < 0 || k > p || buf.capacity() != fileBytes(p, k)) {
+			throw new IOException("Malformed model file " + filename);
+		}
+		double[] means = new double[p];
+		for(int i = 0; i < p; i++) {
+			means[i] = buf.getDouble();
+		}
+		double[] eigenvalues = new double[k];
+		for(int c = 0; c < k; c++) {
+			eigenvalues[c] = buf.getDouble();
+		}
+		double[] loadings = new double[p * k];
+		buf.asDoubleBuffer().get(loadings);
+		return new PCAModel(means, DenseMatrix.wrap(loadings, p, k), eigenvalues);
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join execution of loops over independent index ranges, used by the heavy Matrix
+ * operations. Loops whose total work falls below THRESHOLD, or any loop when the pool has a
+ * parallelism of 1, run sequentially on the calling thread.
+ *
+ * Every parallel operation in this project partitions its output so that each entry is computed
+ * by exactly the same sequence of floating point operations as in the sequential version, so
+ * parallel and sequential results are identical (tolerance 0) unless a method documents otherwise.
+ */
+class Parallel {
+
+	static final long THRESHOLD = 1 << 16; //Minimum work, in multiply-adds, worth forking for
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Body of a parallel loop; processes indices [from, to).
+	 */
+	interface RangeBody {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Sets the number of worker threads used by parallel operations. A value of 1 makes every
+	 * operation sequential.
+	 * @param threads	number of threads; must be positive
+	 */
+	static void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Thread count must be positive: " + threads);
+		}
+		setPool(threads == ForkJoinPool.commonPool().getParallelism()
+				? ForkJoinPool.commonPool() : new ForkJoinPool(threads));
+	}
+
+	/**
+	 * Sets the pool used by parallel operations.
+	 */
+	static void setPool(ForkJoinPool newPool) {
+		ForkJoinPool old = pool;
+		pool = newPool;
+		if(old != newPool && old != ForkJoinPool.commonPool()) {
+			old.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the pool used by parallel operations.
+	 */
+	static ForkJoinPool pool() {
+		return pool;
+	}
+
+	/**
+	 * Runs body over [0, n), splitting the range across the pool if the total work justifies it.
+	 * @param n				number of indices
+	 * @param workPerIndex	approximate number of multiply-adds performed per index
+	 * @param body			loop body
+	 */
+	static void forRange(int n, long workPerIndex, RangeBody body) {
+		ForkJoinPool p = pool;
+		long work = n * Math.max(1, workPerIndex);
+		if(n <= 1 || p.getParallelism() <= 1 || work < THRESHOLD) {
+			body.run(0, n);
+			return;
+		}
+		//Aim for several tasks per thread, but never tasks smaller than THRESHOLD
+		int grain = (int) Math.max(1, Math.max(n / (4L * p.getParallelism()),
+				THRESHOLD / Math.max(1, workPerIndex)));
+		p.invoke(new RangeTask(0, n, grain, body));
+	}
+
+	/**
+	 * Task that halves its range until it is no larger than the grain size.
+	 */
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final RangeBody body;
+
+		RangeTask(int from, int to, int grain, RangeBody body) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= grain) {
+				body.run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+		}
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * Data holder class for a thin singular value decomposition U diag(values) (V^T).
+ */
+class SVDSet {
+	DenseMatrix U;
+	double[] values;
+	DenseMatrix V;
+}
@@ -0,0 +1,173 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes PCA scores to a file one row (data point) at a time, so that scores can be written as
+ * they are produced. Values are formatted into a reusable buffer and written through a
+ * FileChannel; close flushes the buffer and closes the file.
+ */
+abstract class ScoreWriter implements Closeable {
+
+	static final int BUFFER_BYTES = 1 << 20;
+
+	final int numComponents;
+	final FileChannel channel;
+	final ByteBuffer buffer;
+	long position; //File position at which the buffer will be written
+	long rowsWritten = 0;
+
+	ScoreWriter(String filename, int numComponents, long start) throws IOException {
+		this.numComponents = numComponents;
+		this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer = ByteBuffer.allocate(Math.max(BUFFER_BYTES, numComponents * 64))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		this.position = start;
+	}
+
+	/**
+	 * Opens a writer for filename.
+	 * @param filename		the name of the file to write
+	 * @param numComponents	number of scores per row
+	 * @param binary		true to write the binary matrix format (row-major), false to write
+	 * 						one line of comma-separated scores per row
+	 * @throws IOException	if the file cannot be created
+	 */
+	static ScoreWriter open(String filename, int numComponents, boolean binary)
+			throws IOException {
+		return binary ? new BinaryScoreWriter(filename, numComponents)
+				: new TextScoreWriter(filename, numComponents);
+	}
+
+	/**
+	 * Writes row row of scores, which holds numComponents values.
+	 */
+	abstract void writeRow(DenseMatrix scores, int row) throws IOException;
+
+	/**
+	 * Writes every row of scores; each row is a data point and each column a component.
+	 */
+	void write(DenseMatrix scores) throws IOException {
+		if(scores.cols != numComponents) {
+			throw new MatrixException("Expected " + numComponents + " scores per row.");
+		}
+		for(int j = 0; j < scores.rows; j++) {
+			writeRow(scores, j);
+		}
+	}
+
+	/**
+	 * Writes the scores of fitted components in the layout returned by Data.NIPALSAlg and the
+	 * other fits, where PCA[c][0][j] is the score of data point j on component c. Each row is
+	 * gathered from the score vectors as it is written, so no transposed copy is made.
+	 */
+	void write(double[][][] PCA) throws IOException {
+		if(PCA.length != numComponents) {
+			throw new MatrixException("Expected " + numComponents + " scores per row.");
+		}
+		DenseMatrix row = DenseMatrix.zeros(1, numComponents);
+		int rows = numComponents == 0 ? 0 : PCA[0][0].length;
+		for(int j = 0; j < rows; j++) {
+			for(int c = 0; c < numComponents; c++) {
+				row.set(0, c, PCA[c][0][j]);
+			}
+			writeRow(row, 0);
+		}
+	}
+
+	/**
+	 * Makes sure at least bytes bytes are free in the buffer, writing it out if necessary.
+	 */
+	void reserve(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes to the file.
+	 */
+	void flush() throws IOException {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.SAVE);
+		buffer.flip();
+		int written = BinaryMatrixFile.writeFully(channel, buffer, position);
+		position += written;
+		buffer.clear();
+		Metrics.stop(timer, 0, written);
+	}
+
+	/**
+	 * Flushes the buffer and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
+
+/**
+ * Writes scores as text, one line of comma-separated values per data point, in the same format
+ * as Double.toString.
+ */
+class TextScoreWriter extends ScoreWriter {
+
+	static final int MAX_VALUE_CHARS = 32; //Longest Double.toString output plus a separator
+	private final StringBuilder digits = new StringBuilder(MAX_VALUE_CHARS);
+
+	TextScoreWriter(String filename, int numComponents) throws IOException {
+		super(filename, numComponents, 0);
+	}
+
+	@Override
+	void writeRow(DenseMatrix scores, int row) throws IOException {
+		reserve(numComponents * MAX_VALUE_CHARS);
+		for(int c = 0; c < numComponents; c++) {
+			digits.setLength(0);
+			digits.append(scores.get(row, c));
+			for(int i = 0; i < digits.length(); i++) {
+				buffer.put((byte) digits.charAt(i));
+			}
+			buffer.put(c == numComponents - 1 ? (byte) '\n' : (byte) ',');
+		}
+		rowsWritten++;
+	}
+}
+
+/**
+ * Writes scores in the row-major binary matrix format of BinaryMatrixFile. The header is
+ * rewritten with the final row count when the writer is closed.
+ */
+class BinaryScoreWriter extends ScoreWriter {
+
+	BinaryScoreWriter(String filename, int numComponents) throws IOException {
+		super(filename, numComponents, BinaryMatrixFile.HEADER_BYTES);
+	}
+
+	@Override
+	void writeRow(DenseMatrix scores, int row) throws IOException {
+		reserve(numComponents * Double.BYTES);
+		for(int c = 0; c < numComponents; c++) {
+			buffer.putDouble(scores.get(row, c));
+		}
+		rowsWritten++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			BinaryMatrixFile.writeFully(channel, BinaryMatrixFile.header((int) rowsWritten,
+					numComponents, BinaryMatrixFile.FLOAT64, BinaryMatrixFile.ROW_MAJOR), 0);
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,388 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Scores single data points against a shared PCAModel for many concurrent callers. Requests are
+ * queued, and one batching thread drains the queue into micro-batches of up to MAX_BATCH points,
+ * so that concurrent requests are served by one matrix product instead of one vector product
+ * each. The batcher waits at most MAX_WAIT_NANOS for a batch to fill once it has a request.
+ * Callers get a CompletableFuture, so they may block on it (cheaply, on virtual threads) or
+ * chain on it. The time from submission to completion of every request is recorded in a
+ * LatencyHistogram.
+ */
+final class ScoringService implements Closeable {
+
+	static final int MAX_BATCH = 256;
+	static final long MAX_WAIT_NANOS = 100_000;
+	static final int FALLBACK_THREADS = 64; //Request threads when virtual threads are unavailable
+
+	/**
+	 * A queued data point and the future that receives its scores.
+	 */
+	private static final class Request {
+		final double[] row;
+		final long start = System.nanoTime();
+		final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+		Request(double[] row) {
+			this.row = row;
+		}
+	}
+
+	private final PCAModel model;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final Thread batcher;
+	private volatile boolean closed = false;
+	private HttpServer server; //Set by serve; stopped by close
+	private ExecutorService requestExecutor; //Runs the server's handlers; shut down by close
+
+	/**
+	 * Starts a service for model.
+	 */
+	ScoringService(PCAModel model) {
+		this.model = model;
+		this.batcher = new Thread(this::runBatches, "pca-scoring-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+	}
+
+	/**
+	 * Queues one data point for scoring.
+	 * @param row	values of the numVariables() variables of the data point; not modified
+	 * @return		a future that receives the numComponents() scores of row
+	 */
+	CompletableFuture<double[]> submit(double[] row) {
+		Request request = new Request(row);
+		if(row.length != model.numVariables()) {
+			request.result.completeExceptionally(new MatrixException("Expected "
+					+ model.numVariables() + " variables per point."));
+			return request.result;
+		}
+		if(closed) {
+			request.result.completeExceptionally(new IllegalStateException("Service is closed."));
+			return request.result;
+		}
+		queue.add(request);
+		if(closed && queue.remove(request)) {
+			//close ran after the check above; the batcher may have drained the queue for the
+			//last time before request arrived, so nothing would ever complete it
+			request.result.completeExceptionally(new IllegalStateException("Service is closed."));
+		}
+		return request.result;
+	}
+
+	/**
+	 * Scores one data point, blocking until its batch has been computed.
+	 */
+	double[] score(double[] row) throws InterruptedException, ExecutionException {
+		return submit(row).get();
+	}
+
+	/**
+	 * Returns the latencies of the requests completed so far.
+	 */
+	LatencyHistogram latencies() {
+		return latencies;
+	}
+
+	/**
+	 * Takes batches off the queue and scores them until the service is closed.
+	 */
+	private void runBatches() {
+		int p = model.numVariables();
+		int k = model.numComponents();
+		DenseMatrix rows = DenseMatrix.zeros(MAX_BATCH, p);
+		DenseMatrix buffer = DenseMatrix.zeros(MAX_BATCH, p);
+		DenseMatrix scores = DenseMatrix.zeros(MAX_BATCH, k);
+		List<Request> batch = new ArrayList<>(MAX_BATCH);
+		while(!closed || !queue.isEmpty()) {
+			try {
+				Request first = queue.poll(10, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + MAX_WAIT_NANOS;
+				while(batch.size() < MAX_BATCH) {
+					queue.drainTo(batch, MAX_BATCH - batch.size());
+					long wait = deadline - System.nanoTime();
+					if(batch.size() == MAX_BATCH || wait <= 0) {
+						break;
+					}
+					Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+					if(next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch(InterruptedException e) {
+				break;
+			}
+			int n = batch.size();
+			for(int j = 0; j < n; j++) {
+				double[] row = batch.get(j).row;
+				for(int i = 0; i < p; i++) {
+					rows.set(j, i, row[i]);
+				}
+			}
+			DenseMatrix out = scores.submatrix(0, 0, n, k);
+			try {
+				model.project(rows.submatrix(0, 0, n, p), buffer, out);
+				for(int j = 0; j < n; j++) {
+					double[] result = new double[k];
+					for(int c = 0; c < k; c++) {
+						result[c] = out.get(j, c);
+					}
+					Request request = batch.get(j);
+					latencies.record(System.nanoTime() - request.start);
+					request.result.complete(result);
+				}
+			} catch(RuntimeException e) {
+				for(Request request: batch) {
+					request.result.completeExceptionally(e);
+				}
+			}
+			batch.clear();
+		}
+		for(Request request = queue.poll(); request != null; request = queue.poll()) {
+			request.result.completeExceptionally(new IllegalStateException("Service is closed."));
+		}
+	}
+
+	/**
+	 * Stops the HTTP server if serve started one, stops accepting requests, finishes the queued
+	 * ones, stops the batching thread and shuts down the server's request threads.
+	 */
+	@Override
+	public void close() {
+		HttpServer httpServer;
+		ExecutorService executor;
+		synchronized(this) {
+			httpServer = server;
+			executor = requestExecutor;
+			server = null;
+			requestExecutor = null;
+		}
+		if(httpServer != null) {
+			httpServer.stop(0);
+		}
+		closed = true;
+		try {
+			batcher.join();
+			if(executor != null) {
+				executor.shutdown();
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread if the Java runtime has
+	 * them (Java 21 and later), or else on a pool of FALLBACK_THREADS platform threads. The
+	 * virtual thread factory is looked up by reflection so that this code still compiles and runs
+	 * on older runtimes.
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(FALLBACK_THREADS);
+		}
+	}
+
+	/**
+	 * Serves the service over HTTP on the loopback interface until close is called.
+	 * POST /score takes one data point per line, with values separated as in data files, and
+	 * answers with one line of comma-separated scores per point; each point is submitted
+	 * separately, so points from concurrent requests share batches. GET /stats answers with the
+	 * request count and latency percentiles.
+	 * @param port	port to listen on, or 0 for any free port
+	 * @return		the running server
+	 * @throws IOException	if the port cannot be bound
+	 * @throws IllegalStateException	if the service is already serving or is closed
+	 */
+	synchronized HttpServer serve(int port) throws IOException {
+		if(server != null || closed) {
+			throw new IllegalStateException("Service is already serving or closed.");
+		}
+		HttpServer httpServer = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		ExecutorService executor = newRequestExecutor();
+		httpServer.setExecutor(executor);
+		httpServer.createContext("/score", this::handleScore);
+		httpServer.createContext("/stats", exchange -> respond(exchange, 200, latencies.summary()));
+		httpServer.start();
+		server = httpServer;
+		requestExecutor = executor;
+		return httpServer;
+	}
+
+	/**
+	 * Handles POST /score.
+	 */
+	private void handleScore(HttpExchange exchange) throws IOException {
+		if(!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "Use POST.\n");
+			return;
+		}
+		byte[] body;
+		try(InputStream in = exchange.getRequestBody()) {
+			body = in.readAllBytes();
+		}
+		List<CompletableFuture<double[]>> pending = new ArrayList<>();
+		try {
+			int start = 0;
+			int line = 1;
+			while(start < body.length) {
+				int end = start;
+				while(end < body.length && body[end] != '\n') {
+					end++;
+				}
+				if(!TextDataParser.isBlank(body, start, end)) {
+					double[] row = new double[model.numVariables()];
+					TextDataParser.parseRow(body, start, end, row, 0, row.length, line);
+					pending.add(submit(row));
+				}
+				start = end + 1;
+				line++;
+			}
+		} catch(IOException e) {
+			respond(exchange, 400, e.getMessage() + "\n");
+			return;
+		}
+		StringBuilder out = new StringBuilder();
+		try {
+			for(CompletableFuture<double[]> result: pending) {
+				double[] scores = result.get();
+				for(int c = 0; c < scores.length; c++) {
+					out.append(scores[c]).append(c == scores.length - 1 ? '\n' : ',');
+				}
+			}
+		} catch(InterruptedException | ExecutionException e) {
+			respond(exchange, 500, "Scoring failed: " + e.getMessage() + "\n");
+			return;
+		}
+		respond(exchange, 200, out.toString());
+	}
+
+	/**
+	 * Sends a plain-text response and closes the exchange.
+	 */
+	private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with about 6% resolution. Values are
+ * grouped into 16 buckets per power of two, so percentiles can be read at any time without
+ * storing every sample, and any number of threads may record at once.
+ */
+final class LatencyHistogram {
+
+	static final int SUB_BUCKETS = 16;
+	static final int SUB_BITS = 4;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * 61);
+
+	/**
+	 * Records one latency.
+	 */
+	void record(long nanos) {
+		counts.incrementAndGet(bucket(Math.max(0, nanos)));
+	}
+
+	/**
+	 * Returns the bucket of value: values below SUB_BUCKETS have their own bucket, and each
+	 * larger power of two is split into SUB_BUCKETS equal parts.
+	 */
+	static int bucket(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the smallest value that falls in bucket.
+	 */
+	static long lowerBound(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * Returns the number of latencies recorded.
+	 */
+	long count() {
+		long total = 0;
+		for(int b = 0; b < counts.length(); b++) {
+			total += counts.get(b);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns an estimate of the given percentile, in nanoseconds: the midpoint of the bucket
+	 * that holds it. Returns 0 if nothing has been recorded.
+	 * @param percentile	between 0 and 100
+	 */
+	long percentile(double percentile) {
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for(int b = 0; b < snapshot.length; b++) {
+			snapshot[b] = counts.get(b);
+			total += snapshot[b];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile/100 * total));
+		long seen = 0;
+		for(int b = 0; b < snapshot.length; b++) {
+			seen += snapshot[b];
+			if(seen >= rank) {
+				return (lowerBound(b) + lowerBound(b + 1) - 1)/2;
+			}
+		}
+		return lowerBound(snapshot.length - 1);
+	}
+
+	/**
+	 * Returns the count and the 50th, 90th, 99th and 99.9th percentiles, in microseconds.
+	 */
+	String summary() {
+		return String.format("requests %d%np50 %.1f us%np90 %.1f us%np99 %.1f us%np99.9 %.1f us%n",
+				count(), percentile(50)/1e3, percentile(90)/1e3, percentile(99)/1e3,
+				percentile(99.9)/1e3);
+	}
+}
@@ -0,0 +1,118 @@
+import java.io.*;
+
+/**
+ * PCA of a data set split into shards that are scanned separately, by different processes or
+ * hosts, and decomposed once. partial scans one shard and saves its statistics: by default the
+ * exact count, means and centered second moments (CovarianceAccumulator), whose file holds
+ * p(p + 1)/2 + p values, or, for data with many variables, a rank-k sketch of the centered data
+ * (IncrementalPCA), whose file holds about pk values. merge loads any number of statistics files
+ * of one kind, combines them one at a time with Chan et al.'s pairwise update (exact statistics)
+ * or the sketch merge, and only then runs the eigen step.
+ *
+ * Merging is associative: exact statistics merged in any grouping or order agree to rounding,
+ * and a merged result can be saved and merged again, so shards can be combined in a tree across
+ * hosts. Sketches agree in any grouping as long as no merge has to drop directions beyond k.
+ */
+class ShardedPCA {
+
+	private ShardedPCA() {
+	}
+
+	/**
+	 * Scans one shard and saves its statistics.
+	 * @param filename		the name of the text data file of the shard
+	 * @param statsFile		the name of the statistics file to write
+	 * @param sketchRank	rank of the sketch to save, or 0 for exact statistics
+	 * @param chunkRows		number of rows held in memory at a time
+	 * @throws IOException	if the data cannot be read or the statistics cannot be written
+	 */
+	static void partial(String filename, String statsFile, int sketchRank, int chunkRows)
+			throws IOException {
+		int cols;
+		try(ChunkedDataReader in = new ChunkedDataReader(filename)) {
+			cols = in.cols;
+		}
+		try {
+			if(sketchRank > 0) {
+				IncrementalPCA sketch = new IncrementalPCA(cols, sketchRank);
+				sketch.update(filename, chunkRows);
+				sketch.save(statsFile);
+			} else {
+				CovarianceAccumulator.checkFileSize(cols); //Before p x p doubles are allocated
+				CovarianceAccumulator stats = new CovarianceAccumulator(cols);
+				stats.add(filename, chunkRows);
+				stats.save(statsFile);
+			}
+		} catch(MatrixException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Merges statistics files and computes the principal components of all the data they cover.
+	 * @param statsFiles	the files to merge, all exact statistics or all sketches
+	 * @param numComponents	desired number of PCs
+	 * @param statsOut		if not null, the merged statistics are saved to this file
+	 * @return				the fitted model
+	 * @throws IOException	if a file cannot be read, the files are of different kinds or
+	 * 						shapes, or the merged statistics cannot be written
+	 */
+	static PCAModel merge(String[] statsFiles, int numComponents, String statsOut)
+			throws IOException {
+		if(statsFiles.length == 0) {
+			throw new IOException("No statistics files to merge.");
+		}
+		try {
+			if(isSketch(statsFiles[0])) {
+				IncrementalPCA sketch = IncrementalPCA.load(statsFiles[0]);
+				for(int f = 1; f < statsFiles.length; f++) {
+					if(!isSketch(statsFiles[f])) {
+						throw new IOException(statsFiles[f]
+								+ " holds exact statistics, not a sketch.");
+					}
+					sketch.merge(IncrementalPCA.load(statsFiles[f]));
+				}
+				if(statsOut != null) {
+					sketch.save(statsOut);
+				}
+				PCAModel model = sketch.model();
+				if(numComponents > model.numComponents()) {
+					throw new IOException("The sketch keeps " + model.numComponents()
+							+ " components, not " + numComponents + ".");
+				}
+				return new PCAModel(model.means(), model.loadings().columns(0, numComponents),
+						java.util.Arrays.copyOf(model.eigenvalues(), numComponents));
+			}
+			CovarianceAccumulator stats = CovarianceAccumulator.load(statsFiles[0]);
+			for(int f = 1; f < statsFiles.length; f++) {
+				if(isSketch(statsFiles[f])) {
+					throw new IOException(statsFiles[f] + " holds a sketch, not exact statistics.");
+				}
+				stats.merge(CovarianceAccumulator.load(statsFiles[f]));
+			}
+			if(statsOut != null) {
+				stats.save(statsOut);
+			}
+			return StreamingPCA.fit(stats, numComponents);
+		} catch(MatrixException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns true if filename holds a sketch, and false if it holds exact statistics.
+	 * @throws IOException	if it holds neither
+	 */
+	static boolean isSketch(String filename) throws IOException {
+		int magic;
+		try(DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			magic = Integer.reverseBytes(in.readInt());
+		} catch(EOFException e) {
+			magic = 0;
+		}
+		if(magic != IncrementalPCA.MAGIC && magic != CovarianceAccumulator.MAGIC) {
+			throw new IOException(filename + " is not a PCA statistics file.");
+		}
+		return magic == IncrementalPCA.MAGIC;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Data table stored in compressed sparse column (CSC) form: only the nonzero entries are kept,
+ * column after column, with the row of each entry. colStart[i] is the position in rowIndex and
+ * values of the first entry of column i, and colStart[cols] is the number of stored entries, so
+ * memory and the cost of every product grow with the number of nonzeros rather than with
+ * rows x cols. Rows are in increasing order within each column. A SparseMatrix is never
+ * modified after it is built, and it is never centered: the sparse PCA path (SparsePCA) applies
+ * the column means implicitly, since subtracting them would fill in every zero.
+ */
+class SparseMatrix {
+
+	final int rows;
+	final int cols;
+	final int[] colStart; //Length cols + 1
+	final int[] rowIndex;
+	final double[] values;
+
+	private SparseMatrix(int rows, int cols, int[] colStart, int[] rowIndex, double[] values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.colStart = colStart;
+		this.rowIndex = rowIndex;
+		this.values = values;
+	}
+
+	/**
+	 * Builds a matrix from its nonzero entries, given in any order as (row[k], col[k], value[k])
+	 * for k < count. Entries with the same row and column are added together. The entries are
+	 * ordered with two stable counting sorts, by row and then by column, in O(count + rows +
+	 * cols) time.
+	 * @param rows		number of rows
+	 * @param cols		number of columns
+	 * @param row		0-based row of each entry
+	 * @param col		0-based column of each entry
+	 * @param value		value of each entry
+	 * @param count		number of entries
+	 * @throws MatrixException	if an entry lies outside the matrix
+	 */
+	static SparseMatrix fromTriplets(int rows, int cols, int[] row, int[] col, double[] value,
+			int count) {
+		for(int k = 0; k < count; k++) {
+			if(row[k] < 0 || row[k] >= rows || col[k] < 0 || col[k] >= cols) {
+				throw new MatrixException("Entry (" + row[k] + ", " + col[k]
+						+ ") lies outside a " + rows + " x " + cols + " matrix.");
+			}
+		}
+		int[] order = countingSort(col, cols, countingSort(row, rows, null, count), count);
+		int[] colStart = new int[cols + 1];
+		int[] rowIndex = new int[count];
+		double[] values = new double[count];
+		int size = 0;
+		for(int s = 0; s < count; s++) {
+			int k = order[s];
+			int previous = s > 0 ? order[s - 1] : -1;
+			if(previous >= 0 && row[previous] == row[k] && col[previous] == col[k]) {
+				values[size - 1] += value[k]; //Repeated entry
+				continue;
+			}
+			rowIndex[size] = row[k];
+			values[size] = value[k];
+			colStart[col[k] + 1]++;
+			size++;
+		}
+		for(int i = 0; i < cols; i++) {
+			colStart[i + 1] += colStart[i];
+		}
+		if(size < count) {
+			rowIndex = java.util.Arrays.copyOf(rowIndex, size);
+			values = java.util.Arrays.copyOf(values, size);
+		}
+		return new SparseMatrix(rows, cols, colStart, rowIndex, values);
+	}
+
+	/**
+	 * Returns the permutation that stably sorts the entries listed in input (or 0...count - 1
+	 * if input is null) by key, where every key is in [0, range).
+	 */
+	private static int[] countingSort(int[] key, int range, int[] input, int count) {
+		int[] start = new int[range + 1];
+		for(int k = 0; k < count; k++) {
+			start[key[k] + 1]++;
+		}
+		for(int i = 0; i < range; i++) {
+			start[i + 1] += start[i];
+		}
+		int[] out = new int[count];
+		for(int s = 0; s < count; s++) {
+			int k = input == null ? s : input[s];
+			out[start[key[k]]++] = k;
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the number of stored entries.
+	 */
+	int nonZeros() {
+		return colStart[cols];
+	}
+
+	/**
+	 * Returns the entry at (row, col), found by binary search within the column.
+	 */
+	double get(int row, int col) {
+		int pos = java.util.Arrays.binarySearch(rowIndex, colStart[col], colStart[col + 1], row);
+		return pos >= 0 ? values[pos] : 0;
+	}
+
+	/**
+	 * Writes column col into out[0...rows), zeros included.
+	 */
+	double[] columnToArray(int col, double[] out) {
+		java.util.Arrays.fill(out, 0, rows, 0);
+		for(int k = colStart[col]; k < colStart[col + 1]; k++) {
+			out[rowIndex[k]] = values[k];
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the mean of each column, counting the zeros that are not stored.
+	 */
+	double[] columnMeans() {
+		double[] means = new double[cols];
+		for(int i = 0; i < cols; i++) {
+			double sum = 0;
+			for(int k = colStart[i]; k < colStart[i + 1]; k++) {
+				sum += values[k];
+			}
+			means[i] = sum/rows;
+		}
+		return means;
+	}
+
+	/**
+	 * Computes y := Ax. Each column scatters x[i] times its entries into y, so the product is
+	 * one pass over the stored entries and runs on one thread (columns share rows of y).
+	 * @param x	vector of length cols
+	 * @param y	vector of length rows; overwritten
+	 */
+	void multiply(double[] x, double[] y) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.GEMV);
+		java.util.Arrays.fill(y, 0, rows, 0);
+		for(int i = 0; i < cols; i++) {
+			double xi = x[i];
+			if(xi == 0) {
+				continue;
+			}
+			for(int k = colStart[i]; k < colStart[i + 1]; k++) {
+				y[rowIndex[k]] += values[k] * xi;
+			}
+		}
+		Metrics.stop(timer, 2L * nonZeros(), 12L * nonZeros() + 8L * (rows + cols));
+	}
+
+	/**
+	 * Computes y := (A^T)x without forming the transpose: y[i] gathers the entries of column i
+	 * against x. Columns are spread over the Parallel pool, and each is summed on one thread.
+	 * @param x	vector of length rows
+	 * @param y	vector of length cols; overwritten
+	 */
+	void multiplyTranspose(double[] x, double[] y) {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.GEMV);
+		Parallel.forRange(cols, 1 + nonZeros() / Math.max(1, cols), (from, to) -> {
+			for(int i = from; i < to; i++) {
+				double sum = 0;
+				for(int k = colStart[i]; k < colStart[i + 1]; k++) {
+					sum += values[k] * x[rowIndex[k]];
+				}
+				y[i] = sum;
+			}
+		});
+		Metrics.stop(timer, 2L * nonZeros(), 12L * nonZeros() + 8L * (rows + cols));
+	}
+}
@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads sparse data tables in the Matrix Market coordinate format. The file starts with the
+ * banner "%%MatrixMarket matrix coordinate <field> general", where the field is real, integer
+ * or pattern; further lines starting with % are comments. The first other line holds the number
+ * of rows, the number of columns and the number of entries, and each following line one entry as
+ * its 1-based row, its 1-based column and (unless the field is pattern, whose entries are all 1)
+ * its value. Entries may come in any order, and repeated entries are added together. As in the
+ * dense formats, each row is a data point and each column a variable.
+ */
+class SparseMatrixFile {
+
+	static final String BANNER = "%%MatrixMarket";
+
+	/**
+	 * Returns true if filename starts with the Matrix Market banner.
+	 */
+	static boolean isSparse(String filename) throws IOException {
+		byte[] start = new byte[BANNER.length()];
+		try(DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			in.readFully(start);
+		} catch(EOFException e) {
+			return false;
+		}
+		return new String(start, java.nio.charset.StandardCharsets.US_ASCII).equals(BANNER);
+	}
+
+	/**
+	 * Reads the sparse data table in filename.
+	 * @param filename	the name of the Matrix Market file
+	 * @return			the data table; each row is a data point
+	 * @throws IOException	if the file cannot be read or is not a general coordinate matrix
+	 */
+	static SparseMatrix read(String filename) throws IOException {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.PARSE);
+		Reader reader = new Reader();
+		long size;
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			size = channel.size();
+			TextDataParser.forEachLine(channel, 0, size, reader);
+		}
+		if(reader.entries == null) {
+			throw new IOException("Sparse matrix file has no size line.");
+		}
+		if(reader.count != reader.entries.length) {
+			throw new IOException("Sparse matrix file has " + reader.count + " entries; expected "
+					+ reader.entries.length + ".");
+		}
+		SparseMatrix out = SparseMatrix.fromTriplets(reader.rows, reader.cols, reader.row,
+				reader.col, reader.entries, reader.count);
+		Metrics.stop(timer, 0, size);
+		return out;
+	}
+
+	/**
+	 * Parses the lines of a Matrix Market file in order.
+	 */
+	private static class Reader implements TextDataParser.LineHandler {
+		boolean banner = false;
+		boolean pattern;
+		int rows;
+		int cols;
+		int[] row;
+		int[] col;
+		double[] entries; //Null until the size line has been read
+		int count = 0;
+		private final long[] fields = new long[3];
+
+		public void line(byte[] bytes, int from, int to) throws IOException {
+			if(!banner) {
+				readBanner(new String(bytes, from, to - from,
+						java.nio.charset.StandardCharsets.US_ASCII));
+				banner = true;
+				return;
+			}
+			if((from < to && bytes[from] == '%') || TextDataParser.isBlank(bytes, from, to)) {
+				return;
+			}
+			int pos = from;
+			int integers = entries == null ? 3 : 2; //The size line, or the row and column
+			for(int f = 0; f < integers; f++) {
+				pos = parseLong(bytes, pos, to, fields, f);
+			}
+			if(entries == null) {
+				if(fields[0] > Integer.MAX_VALUE || fields[1] > Integer.MAX_VALUE
+						|| fields[2] > Integer.MAX_VALUE - 8) {
+					throw new IOException("Sparse matrix is too large.");
+				}
+				rows = (int) fields[0];
+				cols = (int) fields[1];
+				row = new int[(int) fields[2]];
+				col = new int[row.length];
+				entries = new double[row.length];
+				return;
+			}
+			if(count == entries.length) {
+				throw new IOException("Sparse matrix file has more than " + count + " entries.");
+			}
+			if(fields[0] < 1 || fields[0] > rows || fields[1] < 1 || fields[1] > cols) {
+				throw new IOException("Entry " + (count + 1) + " lies outside a " + rows + " x "
+						+ cols + " matrix.");
+			}
+			row[count] = (int) fields[0] - 1;
+			col[count] = (int) fields[1] - 1;
+			if(pattern) {
+				entries[count] = 1;
+			} else {
+				while(pos < to && TextDataParser.isSeparator(bytes[pos])) {
+					pos++;
+				}
+				int end = pos;
+				while(end < to && !TextDataParser.isSeparator(bytes[end])) {
+					end++;
+				}
+				if(end == pos) {
+					throw new IOException("Entry " + (count + 1) + " has no value.");
+				}
+				entries[count] = TextDataParser.parseDouble(bytes, pos, end);
+			}
+			count++;
+		}
+
+		/**
+		 * Checks the banner line and notes whether entries have values.
+		 */
+		private void readBanner(String line) throws IOException {
+			String[] words = line.trim().toLowerCase().split("\\s+");
+			if(words.length != 5 || !words[0].equals(BANNER.toLowerCase())
+					|| !words[1].equals("matrix") || !words[2].equals("coordinate")) {
+				throw new IOException("Not a Matrix Market coordinate file.");
+			}
+			if(!words[3].equals("real") && !words[3].equals("integer")
+					&& !words[3].equals("pattern")) {
+				throw new IOException("Unsupported Matrix Market field " + words[3] + ".");
+			}
+			if(!words[4].equals("general")) {
+				throw new IOException("Unsupported Matrix Market symmetry " + words[4]
+						+ "; only general matrices are data tables.");
+			}
+			pattern = words[3].equals("pattern");
+		}
+	}
+
+	/**
+	 * Parses a non-negative integer starting at or after pos into fields[f].
+	 * @return	the position after the integer
+	 * @throws IOException	if there is no integer there
+	 */
+	private static int parseLong(byte[] bytes, int pos, int to, long[] fields, int f)
+			throws IOException {
+		while(pos < to && TextDataParser.isSeparator(bytes[pos])) {
+			pos++;
+		}
+		long value = 0;
+		int digits = 0;
+		while(pos < to && bytes[pos] >= '0' && bytes[pos] <= '9') {
+			value = value * 10 + (bytes[pos++] - '0');
+			if(++digits > 18) {
+				throw new IOException("Integer too large in sparse matrix file.");
+			}
+		}
+		if(digits == 0) {
+			throw new IOException("Expected an integer in sparse matrix file.");
+		}
+		fields[f] = value;
+		return pos;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Principal components of a sparse data table. Centering a sparse table would fill in every
+ * zero, so the data is never centered or deflated: NIPALS runs on the residual
+ * E = X - 1(means^T) - sum over earlier components of t(p^T), and every product with E is a
+ * sparse product with X followed by rank-1 corrections,
+ * Ev = Xv - (means.v)1 - sum of t(p.v) and (E^T)u = (X^T)u - (sum of u)means - sum of p(t.u).
+ * Each iteration therefore costs two passes over the nonzeros of X plus O((rows + cols)k) for
+ * the k components already found, and memory holds X, the means and the components.
+ */
+class SparsePCA {
+
+	private SparsePCA() {
+	}
+
+	/**
+	 * NIPALS on the implicitly centered data x, with the default NIPALSControl.
+	 */
+	static double[][][] NIPALSAlg(SparseMatrix x, double[] means, int numComponents) {
+		return NIPALSAlg(x, means, numComponents, new NIPALSControl());
+	}
+	
+	/**
+	 * NIPALS on the implicitly centered data x. The results match those of Data.NIPALSAlg on
+	 * the centered dense table, up to rounding.
+	 * @param x				sparse data; each row is a data point
+	 * @param means			mean of each column of x, from SparseMatrix.columnMeans
+	 * @param numComponents	number of principal components desired
+	 * @param control		tolerance, iteration bound and initial loadings; receives the
+	 * 						iterations and residual of each component
+	 * @return				a double[][][] where the ith double[][] contains ti and pi, the scores
+	 * 						and loadings, respectively, of the ith principal component.
+	 */
+	static double[][][] NIPALSAlg(SparseMatrix x, double[] means, int numComponents,
+			NIPALSControl control) {
+		int rank = Math.min(x.rows, x.cols);
+		if(numComponents > rank) {
+			throw new MatrixException("Cannot produce more principal components than " + rank + ".");
+		}
+		double[][][] out = new double[numComponents][][];
+		control.begin(numComponents);
+		double[][] start = control.startingLoadings(x.cols, V -> {
+			DenseMatrix W = DenseMatrix.zeros(x.rows, V.cols);
+			double[] w = new double[x.rows];
+			for(int c = 0; c < V.cols; c++) {
+				multiply(x, means, out, 0, V.columnToArray(c), w);
+				System.arraycopy(w, 0, W.array(), (int) W.index(0, c), w.length);
+			}
+			return W;
+		});
+		long m = x.rows;
+		long n = x.cols;
+		for(int i = 0; i < out.length; i++) {
+			Metrics.OperationEvent component = Metrics.start(Metrics.Op.NIPALS_COMPONENT);
+			double[] t = new double[x.rows];
+			double[] p = new double[x.cols];
+			double[] q = new double[x.cols]; //(E^T)Ep
+			if(i < start.length) {
+				System.arraycopy(start[i], 0, p, 0, p.length);
+			} else {
+				x.columnToArray(i, t);
+				VectorKernels.ACTIVE.subtract(t, 0, means[i], t, 0, t.length);
+				multiplyTranspose(x, means, out, i, t, p);
+			}
+			double residual = 0;
+			int iterations = 0;
+			do {
+				Metrics.OperationEvent iteration = Metrics.start(Metrics.Op.NIPALS_ITERATION);
+				if(iterations > 0) {
+					double[] swap = p; //p := (E^T)Ep from the last iteration
+					p = q;
+					q = swap;
+				}
+				VectorKernels.ACTIVE.scale(1/Matrix.norm(p), p, 0, p, 0, p.length);
+				multiply(x, means, out, i, p, t);
+				multiplyTranspose(x, means, out, i, t, q);
+				residual = NIPALSControl.residual(q, Matrix.dot(t, t), p);
+				iterations++;
+				Metrics.stop(iteration, 4L * x.nonZeros() + (4L * i + 6) * (m + n),
+						24L * x.nonZeros() + 8 * (2L * i + 5) * (m + n));
+			} while(residual > control.tolerance && iterations < control.maxIterations);
+			control.iterations[i] = iterations;
+			control.residuals[i] = residual;
+			Metrics.nipalsConverged(i, iterations, Matrix.dot(t, t), residual);
+			Metrics.stop(component, 0, 0);
+			out[i] = new double[][] {t, p}; //{scores, loadings}
+		}
+		return out;
+	}
+
+	/**
+	 * Computes t := Ev, where E is x centered at means, less the first k components in found.
+	 */
+	static void multiply(SparseMatrix x, double[] means, double[][][] found, int k, double[] v,
+			double[] t) {
+		x.multiply(v, t);
+		VectorKernels.ACTIVE.subtract(t, 0, Matrix.dot(means, v), t, 0, t.length);
+		for(int c = 0; c < k; c++) {
+			VectorKernels.ACTIVE.axpy(-Matrix.dot(found[c][1], v), found[c][0], 0, t, 0, t.length);
+		}
+	}
+
+	/**
+	 * Computes p := (E^T)u, where E is x centered at means, less the first k components in
+	 * found.
+	 */
+	static void multiplyTranspose(SparseMatrix x, double[] means, double[][][] found, int k,
+			double[] u, double[] p) {
+		x.multiplyTranspose(u, p);
+		VectorKernels.ACTIVE.axpy(-VectorKernels.ACTIVE.sum(u, 0, u.length), means, 0, p, 0,
+				p.length);
+		for(int c = 0; c < k; c++) {
+			VectorKernels.ACTIVE.axpy(-Matrix.dot(found[c][0], u), found[c][1], 0, p, 0, p.length);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+import java.io.*;
+
+/**
+ * PCA over a data file that is never loaded in full. A first pass reads the file in blocks of
+ * rows and accumulates the means and covariance matrix; the principal components are the
+ * leading eigenvectors of that matrix. The scores are then written by a second pass,
+ * PCAModel.transform, which centers and projects each block as it is read. Peak memory is one
+ * block of rows plus a few p x p matrices, independent of the number of rows.
+ */
+class StreamingPCA {
+
+	static final int DEFAULT_CHUNK_ROWS = 4096;
+
+	/**
+	 * Computes the principal components of the data in filename with one streaming pass.
+	 * @param filename		the name of the file containing the data
+	 * @param numComponents	desired number of PCs
+	 * @param chunkRows		number of rows held in memory at a time
+	 * @return				the fitted model
+	 * @throws IOException	if an error occurs while reading the file
+	 */
+	static PCAModel fit(String filename, int numComponents, int chunkRows) throws IOException {
+		CovarianceAccumulator stats;
+		try(ChunkedDataReader in = new ChunkedDataReader(filename)) {
+			stats = new CovarianceAccumulator(in.cols);
+		}
+		stats.add(filename, chunkRows);
+		return fit(stats, numComponents);
+	}
+
+	/**
+	 * Computes the principal components of accumulated statistics.
+	 * @param stats			means and covariance of the data
+	 * @param numComponents	desired number of PCs
+	 * @return				the fitted model
+	 */
+	static PCAModel fit(CovarianceAccumulator stats, int numComponents) {
+		EigenSet eigen = Matrix.eigenDecomposition(stats.covariance(), numComponents);
+		return new PCAModel(stats.means(), DenseMatrix.fromColumns(eigen.vectors), eigen.values);
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * Eigendecomposition of symmetric matrices. The matrix is first reduced to tridiagonal form by
+ * Householder reflections; the tridiagonal matrix is then diagonalized by the implicit QL
+ * algorithm with Wilkinson shifts, accumulating the rotations into the eigenvectors. This is the
+ * approach of the EISPACK routines tred2 and tql2, as used in JAMA. It needs O(n^3) work in
+ * total, rather than O(n^3) per iteration as in the unshifted QR algorithm, and its shifts give
+ * cubic convergence even when eigenvalues are clustered.
+ *
+ * Eigenvectors are stored by column: z[k] is the kth column of the orthogonal matrix, so all of
+ * the inner loops run along contiguous arrays.
+ */
+class SymmetricEigensolver {
+
+	static final int MAX_SWEEPS = 30; //Maximum QL iterations per eigenvalue
+
+	private final int n;
+	private final double[] d; //Diagonal, then eigenvalues
+	private final double[] e; //Subdiagonal
+	private final double[][] z; //z[k] is the kth column of the accumulated transformation
+
+	private SymmetricEigensolver(DenseMatrix input) {
+		n = input.rows;
+		d = new double[n];
+		e = new double[n];
+		z = input.toColumns(); //Columns equal rows for a symmetric matrix
+	}
+
+	/**
+	 * Computes every eigenvalue and eigenvector of a symmetric matrix. The input is not modified.
+	 * @param input	symmetric matrix
+	 * @return		an EigenSet whose eigenvalues are sorted in decreasing order; vectors[k] is
+	 * 				the unit eigenvector of values[k]
+	 */
+	static EigenSet decompose(DenseMatrix input) {
+		if(input.rows != input.cols) {
+			throw new MatrixException("Eigendecomposition not defined on nonsquare matrices.");
+		}
+		EigenSet ret = new EigenSet();
+		if(input.rows == 0) {
+			ret.values = new double[0];
+			ret.vectors = new double[0][];
+			return ret;
+		}
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.EIGEN);
+		SymmetricEigensolver solver = new SymmetricEigensolver(input);
+		solver.tridiagonalize();
+		solver.diagonalize();
+		solver.sortDecreasing();
+		ret.values = solver.d;
+		ret.vectors = solver.z;
+		long n = input.rows;
+		Metrics.stop(timer, 9 * n * n * n, 8 * (2 * n * n + n)); //About 9n^3 flops with vectors
+		return ret;
+	}
+
+	/**
+	 * Returns true if input is square and equal to its transpose up to rounding error.
+	 */
+	static boolean isSymmetric(DenseMatrix input) {
+		if(input.rows != input.cols) {
+			return false;
+		}
+		double max = 0;
+		for(int j = 0; j < input.cols; j++) {
+			for(int i = 0; i < input.rows; i++) {
+				max = Math.max(max, Math.abs(input.get(i, j)));
+			}
+		}
+		double tolerance = 1e-12 * max;
+		for(int j = 0; j < input.cols; j++) {
+			for(int i = j + 1; i < input.rows; i++) {
+				if(Math.abs(input.get(i, j) - input.get(j, i)) > tolerance) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Householder reduction to tridiagonal form. Afterwards d holds the diagonal, e the
+	 * subdiagonal (in e[1...n-1]) and z the orthogonal transformation.
+	 */
+	private void tridiagonalize() {
+		for(int j = 0; j < n; j++) {
+			d[j] = z[j][n - 1];
+		}
+		for(int i = n - 1; i > 0; i--) {
+			double scale = 0;
+			double h = 0;
+			for(int k = 0; k < i; k++) {
+				scale += Math.abs(d[k]);
+			}
+			if(scale == 0) {
+				e[i] = d[i - 1];
+				for(int j = 0; j < i; j++) {
+					d[j] = z[j][i - 1];
+					z[j][i] = 0;
+					z[i][j] = 0;
+				}
+			} else {
+				//Generate the Householder vector
+				for(int k = 0; k < i; k++) {
+					d[k] /= scale;
+					h += d[k] * d[k];
+				}
+				double f = d[i - 1];
+				double g = Math.sqrt(h);
+				if(f > 0) {
+					g = -g;
+				}
+				e[i] = scale * g;
+				h -= f * g;
+				d[i - 1] = f - g;
+				for(int j = 0; j < i; j++) {
+					e[j] = 0;
+				}
+				//Apply the similarity transformation to the remaining columns
+				for(int j = 0; j < i; j++) {
+					double[] zj = z[j];
+					f = d[j];
+					z[i][j] = f;
+					g = e[j] + zj[j] * f;
+					for(int k = j + 1; k <= i - 1; k++) {
+						g += zj[k] * d[k];
+						e[k] += zj[k] * f;
+					}
+					e[j] = g;
+				}
+				f = 0;
+				for(int j = 0; j < i; j++) {
+					e[j] /= h;
+					f += e[j] * d[j];
+				}
+				double hh = f / (h + h);
+				for(int j = 0; j < i; j++) {
+					e[j] -= hh * d[j];
+				}
+				for(int j = 0; j < i; j++) {
+					double[] zj = z[j];
+					f = d[j];
+					g = e[j];
+					for(int k = j; k <= i - 1; k++) {
+						zj[k] -= f * e[k] + g * d[k];
+					}
+					d[j] = zj[i - 1];
+					zj[i] = 0;
+				}
+			}
+			d[i] = h;
+		}
+		//Accumulate the transformations
+		for(int i = 0; i < n - 1; i++) {
+			z[i][n - 1] = z[i][i];
+			z[i][i] = 1;
+			double h = d[i + 1];
+			double[] next = z[i + 1];
+			if(h != 0) {
+				for(int k = 0; k <= i; k++) {
+					d[k] = next[k] / h;
+				}
+				for(int j = 0; j <= i; j++) {
+					double[] zj = z[j];
+					double g = 0;
+					for(int k = 0; k <= i; k++) {
+						g += next[k] * zj[k];
+					}
+					for(int k = 0; k <= i; k++) {
+						zj[k] -= g * d[k];
+					}
+				}
+			}
+			for(int k = 0; k <= i; k++) {
+				next[k] = 0;
+			}
+		}
+		for(int j = 0; j < n; j++) {
+			d[j] = z[j][n - 1];
+			z[j][n - 1] = 0;
+		}
+		z[n - 1][n - 1] = 1;
+		e[0] = 0;
+	}
+
+	/**
+	 * Implicit QL iteration with Wilkinson shifts on the tridiagonal matrix held in d and e,
+	 * applying every rotation to the columns of z.
+	 */
+	private void diagonalize() {
+		for(int i = 1; i < n; i++) {
+			e[i - 1] = e[i];
+		}
+		e[n - 1] = 0;
+		double f = 0;
+		double tst1 = 0;
+		double eps = Math.ulp(1.0);
+		for(int l = 0; l < n; l++) {
+			//Find a negligible subdiagonal element
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while(m < n) {
+				if(Math.abs(e[m]) <= eps * tst1) {
+					break;
+				}
+				m++;
+			}
+			//If m == l, d[l] is already an eigenvalue; otherwise iterate
+			if(m > l) {
+				int iter = 0;
+				do {
+					if(++iter > MAX_SWEEPS) {
+						throw new MatrixException("Eigendecomposition did not converge.");
+					}
+					//Compute the implicit shift
+					double g = d[l];
+					double p = (d[l + 1] - g) / (2 * e[l]);
+					double r = Math.hypot(p, 1);
+					if(p < 0) {
+						r = -r;
+					}
+					d[l] = e[l] / (p + r);
+					d[l + 1] = e[l] * (p + r);
+					double dl1 = d[l + 1];
+					double h = g - d[l];
+					for(int i = l + 2; i < n; i++) {
+						d[i] -= h;
+					}
+					f += h;
+					//Implicit QL transformation
+					p = d[m];
+					double c = 1;
+					double c2 = c;
+					double c3 = c;
+					double el1 = e[l + 1];
+					double s = 0;
+					double s2 = 0;
+					for(int i = m - 1; i >= l; i--) {
+						c3 = c2;
+						c2 = c;
+						s2 = s;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p, e[i]);
+						e[i + 1] = s * r;
+						s = e[i] / r;
+						c = p / r;
+						p = c * d[i] - s * g;
+						d[i + 1] = h + s * (c * g + s * d[i]);
+						rotate(z[i], z[i + 1], c, s);
+					}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = c * p;
+				} while(Math.abs(e[l]) > eps * tst1);
+			}
+			d[l] += f;
+			e[l] = 0;
+		}
+	}
+
+	/**
+	 * Applies a plane rotation to two columns: (a, b) := (ca - sb, sa + cb).
+	 */
+	private static void rotate(double[] a, double[] b, double c, double s) {
+		for(int k = 0; k < a.length; k++) {
+			double h = b[k];
+			b[k] = s * a[k] + c * h;
+			a[k] = c * a[k] - s * h;
+		}
+	}
+
+	/**
+	 * Sorts the eigenvalues in decreasing order, permuting the eigenvectors to match.
+	 */
+	private void sortDecreasing() {
+		for(int i = 0; i < n - 1; i++) {
+			int max = i;
+			for(int j = i + 1; j < n; j++) {
+				if(d[j] > d[max]) {
+					max = j;
+				}
+			}
+			if(max != i) {
+				double value = d[i];
+				d[i] = d[max];
+				d[max] = value;
+				double[] vector = z[i];
+				z[i] = z[max];
+				z[max] = vector;
+			}
+		}
+	}
+}
@@ -0,0 +1,508 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Parser for text data files. The first line gives the number of rows R and the number of
+ * columns C; each following line holds the C values of one data point. Values may be separated
+ * by commas, tabs, semicolons or runs of spaces, so files need not declare their delimiter and
+ * both the tab-delimited and comma-delimited forms are read. Blank lines and carriage returns are
+ * ignored, as are values beyond the Cth and lines beyond the Rth.
+ *
+ * parse splits the file into line-aligned segments that are read with positional reads and
+ * parsed in parallel on the Parallel pool. Numbers are parsed straight from the bytes without
+ * creating Strings, and every segment writes its rows into one preallocated DenseMatrix.
+ */
+class TextDataParser {
+
+	static final int WINDOW_BYTES = 1 << 20; //Bytes read from the file at a time
+	static final long MIN_SEGMENT_BYTES = 1 << 20; //Smallest segment parsed by one task
+	static final long MAX_SEGMENT_BYTES = 1 << 28; //Largest segment parsed by one task
+	static final int TILE_ROWS = 256; //Rows parsed before being scattered into columns
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+			1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private static final int MIN_POWER = -348; //Range of exponents covered by the 128-bit table
+	private static final int MAX_POWER = 347;
+	//POWERS_HI[e - MIN_POWER] and POWERS_LO[e - MIN_POWER] are the high and low 64 bits of
+	//10^e, scaled by a power of two to exactly 128 bits and rounded down
+	private static final long[] POWERS_HI = new long[MAX_POWER - MIN_POWER + 1];
+	private static final long[] POWERS_LO = new long[MAX_POWER - MIN_POWER + 1];
+
+	static {
+		java.math.BigInteger mask = java.math.BigInteger.ONE.shiftLeft(64)
+				.subtract(java.math.BigInteger.ONE);
+		for(int e = MIN_POWER; e <= MAX_POWER; e++) {
+			java.math.BigInteger pow = java.math.BigInteger.TEN.pow(Math.abs(e));
+			java.math.BigInteger scaled;
+			if(e >= 0) {
+				int shift = pow.bitLength() - 128;
+				scaled = shift >= 0 ? pow.shiftRight(shift) : pow.shiftLeft(-shift);
+			} else {
+				scaled = java.math.BigInteger.ONE.shiftLeft(pow.bitLength() + 127).divide(pow);
+				if(scaled.bitLength() > 128) {
+					scaled = scaled.shiftRight(1);
+				}
+			}
+			POWERS_HI[e - MIN_POWER] = scaled.shiftRight(64).longValue();
+			POWERS_LO[e - MIN_POWER] = scaled.and(mask).longValue();
+		}
+	}
+
+	/**
+	 * Receives one line of a file as a range of bytes, without the line terminator.
+	 */
+	interface LineHandler {
+		void line(byte[] bytes, int from, int to) throws IOException;
+	}
+
+	/**
+	 * Parses the data file filename into a new column-major DenseMatrix; each row is a data
+	 * point. The matrix is kept on the heap if it fits in a single array and off-heap otherwise.
+	 * @param filename	the name of the file containing the data
+	 * @return			the data table
+	 * @throws IOException	if the file cannot be read or is malformed
+	 */
+	static DenseMatrix parse(String filename) throws IOException {
+		return parse(filename, false);
+	}
+
+	/**
+	 * Parses the data file filename as parse(String) does, optionally into a single precision
+	 * matrix. Each value is parsed to the nearest double and then rounded to float.
+	 * @param filename	the name of the file containing the data
+	 * @param single	true to store the entries in single precision
+	 * @return			the data table
+	 * @throws IOException	if the file cannot be read or is malformed
+	 */
+	static DenseMatrix parse(String filename, boolean single) throws IOException {
+		Metrics.OperationEvent timer = Metrics.start(Metrics.Op.PARSE);
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			byte[] headerLine = readFirstLine(channel);
+			int[] dims = parseHeader(headerLine, 0, headerLine.length);
+			int rows = dims[0];
+			int cols = dims[1];
+			long dataStart = Math.min(size, headerLine.length + 1);
+			DenseMatrix out = DenseMatrix.allocate(rows, cols, single);
+
+			long[] bounds = segmentBounds(channel, dataStart, size);
+			int segments = bounds.length - 1;
+			long[] firstRow = new long[segments + 1];
+			//Pass 1: count the data lines in each segment to find where its rows start
+			Parallel.forRange(segments, (bounds[segments] - bounds[0]) / Math.max(1, segments),
+					(from, to) -> {
+				for(int s = from; s < to; s++) {
+					long[] count = {0};
+					try {
+						forEachLine(channel, bounds[s], bounds[s + 1], (bytes, lineFrom, lineTo) -> {
+							if(!isBlank(bytes, lineFrom, lineTo)) {
+								count[0]++;
+							}
+						});
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					firstRow[s + 1] = count[0];
+				}
+			});
+			for(int s = 0; s < segments; s++) {
+				firstRow[s + 1] += firstRow[s];
+			}
+			if(firstRow[segments] < rows) {
+				throw new IOException("Data file has " + firstRow[segments] + " rows; header "
+						+ "declares " + rows + ".");
+			}
+			//Pass 2: parse each segment into its rows of the output
+			Parallel.forRange(segments, (bounds[segments] - bounds[0]) / Math.max(1, segments),
+					(from, to) -> {
+				for(int s = from; s < to; s++) {
+					parseSegment(channel, bounds[s], bounds[s + 1], firstRow[s], out);
+				}
+			});
+			Metrics.stop(timer, 0, size + (long) out.entryBytes() * rows * cols);
+			return out;
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Parses the rows between byte positions start and end into out, starting at row firstRow.
+	 * Rows are parsed into a small row-major tile and then written to out a column at a time.
+	 */
+	private static void parseSegment(FileChannel channel, long start, long end, long firstRow,
+			DenseMatrix out) {
+		int cols = out.cols;
+		double[] tile = new double[TILE_ROWS * cols];
+		int[] tileRows = {0};
+		long[] nextRow = {firstRow};
+		try {
+			forEachLine(channel, start, end, (bytes, from, to) -> {
+				if(isBlank(bytes, from, to) || nextRow[0] + tileRows[0] >= out.rows) {
+					return;
+				}
+				parseRow(bytes, from, to, tile, tileRows[0] * cols, cols, nextRow[0] + tileRows[0] + 1);
+				if(++tileRows[0] == TILE_ROWS) {
+					flushTile(tile, tileRows[0], (int) nextRow[0], out);
+					nextRow[0] += tileRows[0];
+					tileRows[0] = 0;
+				}
+			});
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		flushTile(tile, tileRows[0], (int) nextRow[0], out);
+	}
+
+	/**
+	 * Writes the first count rows of a row-major tile to out starting at row firstRow.
+	 */
+	private static void flushTile(double[] tile, int count, int firstRow, DenseMatrix out) {
+		int cols = out.cols;
+		for(int i = 0; i < cols; i++) {
+			for(int r = 0; r < count; r++) {
+				out.set(firstRow + r, i, tile[r * cols + i]);
+			}
+		}
+	}
+
+	/**
+	 * Splits [start, end) into segments for parallel parsing. Every boundary after the first is
+	 * moved to the start of a line.
+	 * @return	the segment boundaries; segment s is [bounds[s], bounds[s + 1])
+	 */
+	private static long[] segmentBounds(FileChannel channel, long start, long end)
+			throws IOException {
+		long length = end - start;
+		int target = 4 * Parallel.pool().getParallelism();
+		long segmentBytes = Math.min(MAX_SEGMENT_BYTES,
+				Math.max(MIN_SEGMENT_BYTES, (length + target - 1) / Math.max(1, target)));
+		int segments = (int) Math.max(1, (length + segmentBytes - 1) / segmentBytes);
+		long[] bounds = new long[segments + 1];
+		bounds[0] = start;
+		bounds[segments] = end;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		for(int s = 1; s < segments; s++) {
+			long pos = Math.max(bounds[s - 1], start + s * segmentBytes);
+			boolean found = false;
+			while(!found && pos < end) {
+				probe.clear();
+				int read = channel.read(probe, pos);
+				if(read <= 0) {
+					break;
+				}
+				for(int i = 0; i < read; i++) {
+					if(probe.get(i) == '\n') {
+						pos += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if(!found) {
+					pos += read;
+				}
+			}
+			bounds[s] = Math.min(pos, end);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Calls handler once for every line that starts in [start, end). The last line may extend
+	 * to the end of the file if it has no terminator.
+	 */
+	static void forEachLine(FileChannel channel, long start, long end, LineHandler handler)
+			throws IOException {
+		byte[] window = new byte[WINDOW_BYTES];
+		int filled = 0;
+		long pos = start;
+		long size = channel.size();
+		boolean eof = false;
+		while(true) {
+			if(!eof && filled < window.length) {
+				int read = channel.read(ByteBuffer.wrap(window, filled, window.length - filled), pos);
+				if(read <= 0) {
+					eof = true;
+				} else {
+					pos += read;
+					filled += read;
+					eof = pos >= size;
+				}
+			}
+			int lineStart = 0;
+			long lineStartPos = pos - filled;
+			for(int i = 0; i < filled; i++) {
+				if(window[i] == '\n') {
+					if(lineStartPos + lineStart >= end) {
+						return;
+					}
+					handler.line(window, lineStart, i);
+					lineStart = i + 1;
+				}
+			}
+			if(lineStartPos + lineStart >= end) {
+				return;
+			}
+			if(eof) {
+				if(lineStart < filled) {
+					handler.line(window, lineStart, filled);
+				}
+				return;
+			}
+			if(lineStart == 0 && filled == window.length) {
+				window = java.util.Arrays.copyOf(window, window.length * 2); //Very long line
+			} else {
+				System.arraycopy(window, lineStart, window, 0, filled - lineStart);
+				filled -= lineStart;
+			}
+		}
+	}
+
+	/**
+	 * Reads the first line of the file, without its terminator.
+	 */
+	private static byte[] readFirstLine(FileChannel channel) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		long pos = 0;
+		while(true) {
+			buf.clear();
+			int read = channel.read(buf, pos);
+			if(read <= 0) {
+				break;
+			}
+			for(int i = 0; i < read; i++) {
+				if(buf.get(i) == '\n') {
+					line.write(buf.array(), 0, i);
+					return line.toByteArray();
+				}
+			}
+			line.write(buf.array(), 0, read);
+			pos += read;
+		}
+		if(line.size() == 0) {
+			throw new IOException("Empty data file.");
+		}
+		return line.toByteArray();
+	}
+
+	/**
+	 * Parses a header line of two non-negative integers, the number of rows and the number of
+	 * columns, separated by any supported delimiter.
+	 * @return	{rows, cols}
+	 * @throws IOException	if the line is not a valid header
+	 */
+	static int[] parseHeader(byte[] bytes, int from, int to) throws IOException {
+		int[] dims = new int[2];
+		int pos = from;
+		for(int d = 0; d < 2; d++) {
+			while(pos < to && isSeparator(bytes[pos])) {
+				pos++;
+			}
+			long value = 0;
+			int digits = 0;
+			while(pos < to && bytes[pos] >= '0' && bytes[pos] <= '9') {
+				value = value * 10 + (bytes[pos++] - '0');
+				if(++digits > 10 || value > Integer.MAX_VALUE) {
+					throw new IOException("Header dimension too large.");
+				}
+			}
+			if(digits == 0) {
+				throw new IOException("Header should be the number of rows and columns.");
+			}
+			dims[d] = (int) value;
+		}
+		return dims;
+	}
+
+	/**
+	 * Parses the first cols values of a data line into out[offset...offset + cols).
+	 * @param row	1-based row number, used in error messages
+	 * @throws IOException	if the line has fewer than cols values or a value is not a number
+	 */
+	static void parseRow(byte[] bytes, int from, int to, double[] out, int offset, int cols,
+			long row) throws IOException {
+		int pos = from;
+		for(int i = 0; i < cols; i++) {
+			while(pos < to && isSeparator(bytes[pos])) {
+				pos++;
+			}
+			int end = pos;
+			while(end < to && !isSeparator(bytes[end])) {
+				end++;
+			}
+			if(end == pos) {
+				throw new IOException("Row " + row + " has " + i + " values; expected " + cols + ".");
+			}
+			out[offset + i] = parseDouble(bytes, pos, end);
+			pos = end;
+		}
+	}
+
+	/**
+	 * Parses a decimal number from bytes[from...to). Numbers with at most 15 significant digits
+	 * and a small exponent are converted exactly with one multiplication or division, and other
+	 * numbers with at most 18 significant digits by the Eisel-Lemire algorithm; both give the
+	 * correctly rounded result. The rare numbers that neither handles are passed to
+	 * Double.parseDouble.
+	 * @throws IOException	if the bytes are not a number
+	 */
+	static double parseDouble(byte[] bytes, int from, int to) throws IOException {
+		int pos = from;
+		boolean negative = false;
+		if(bytes[pos] == '-' || bytes[pos] == '+') {
+			negative = bytes[pos] == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		for(; pos < to && bytes[pos] >= '0' && bytes[pos] <= '9'; pos++) {
+			anyDigits = true;
+			if(mantissa != 0 || bytes[pos] != '0') {
+				if(digits < 18) {
+					mantissa = mantissa * 10 + (bytes[pos] - '0');
+				} else {
+					exponent++;
+				}
+				digits++;
+			}
+		}
+		if(pos < to && bytes[pos] == '.') {
+			for(pos++; pos < to && bytes[pos] >= '0' && bytes[pos] <= '9'; pos++) {
+				anyDigits = true;
+				if(mantissa != 0 || bytes[pos] != '0') {
+					if(digits < 18) {
+						mantissa = mantissa * 10 + (bytes[pos] - '0');
+						exponent--;
+					}
+					digits++;
+				} else {
+					exponent--;
+				}
+			}
+		}
+		if(anyDigits && pos < to && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+			int expPos = pos + 1;
+			boolean expNegative = false;
+			if(expPos < to && (bytes[expPos] == '-' || bytes[expPos] == '+')) {
+				expNegative = bytes[expPos] == '-';
+				expPos++;
+			}
+			int exp = 0;
+			int expDigits = 0;
+			for(; expPos < to && bytes[expPos] >= '0' && bytes[expPos] <= '9'; expPos++) {
+				exp = Math.min(exp * 10 + (bytes[expPos] - '0'), 100000);
+				expDigits++;
+			}
+			if(expDigits > 0) {
+				exponent += expNegative ? -exp : exp;
+				pos = expPos;
+			}
+		}
+		if(anyDigits && pos == to && digits <= 18) {
+			if(mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			if(digits <= 15 && Math.abs(exponent) <= 22) {
+				double value = (double) mantissa;
+				value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+				return negative ? -value : value;
+			}
+			long bits = eiselLemire(mantissa, exponent);
+			if(bits != -1) {
+				return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+			}
+		}
+		String text = new String(bytes, from, to - from, java.nio.charset.StandardCharsets.US_ASCII);
+		try {
+			return Double.parseDouble(text);
+		} catch(NumberFormatException e) {
+			throw new IOException("Not a number: " + text);
+		}
+	}
+
+	/**
+	 * Converts mantissa * 10^exponent to the bits of the nearest double with the Eisel-Lemire
+	 * algorithm (D. Lemire, "Number Parsing at a Gigabyte per Second", 2021).
+	 * @param mantissa	positive decimal significand
+	 * @param exponent	decimal exponent
+	 * @return			the bits of the positive result, or -1 if the result could not be
+	 * 					determined exactly and a slower method must be used
+	 */
+	private static long eiselLemire(long mantissa, int exponent) {
+		if(exponent < MIN_POWER || exponent > MAX_POWER) {
+			return -1;
+		}
+		int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		long man = mantissa << leadingZeros;
+		long exp2 = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+		long powHi = POWERS_HI[exponent - MIN_POWER];
+		long powLo = POWERS_LO[exponent - MIN_POWER];
+		long xHi = unsignedMultiplyHigh(man, powHi);
+		long xLo = man * powHi;
+		if((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+			//The truncated product may be off by one in the bits that matter; widen it
+			long yHi = unsignedMultiplyHigh(man, powLo);
+			long yLo = man * powLo;
+			long mergedHi = xHi;
+			long mergedLo = xLo + yHi;
+			if(Long.compareUnsigned(mergedLo, xLo) < 0) {
+				mergedHi++;
+			}
+			if((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0
+					&& Long.compareUnsigned(yLo + man, man) < 0) {
+				return -1;
+			}
+			xHi = mergedHi;
+			xLo = mergedLo;
+		}
+		long msb = xHi >>> 63;
+		long result = xHi >>> (msb + 9);
+		exp2 -= 1 ^ msb;
+		if(xLo == 0 && (xHi & 0x1FF) == 0 && (result & 3) == 1) {
+			return -1; //Exactly halfway between two doubles
+		}
+		result += result & 1;
+		result >>>= 1;
+		if((result >>> 53) > 0) {
+			result >>>= 1;
+			exp2++;
+		}
+		if(exp2 <= 0 || exp2 >= 0x7FF) {
+			return -1; //Subnormal or infinite
+		}
+		return exp2 << 52 | (result & ((1L << 52) - 1));
+	}
+
+	/**
+	 * Returns the high 64 bits of the unsigned 128-bit product of a and b.
+	 */
+	private static long unsignedMultiplyHigh(long a, long b) {
+		return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+	}
+
+	/**
+	 * Returns true if b separates values: a comma, tab, semicolon, space or carriage return.
+	 */
+	static boolean isSeparator(byte b) {
+		return b == ',' || b == '\t' || b == ' ' || b == ';' || b == '\r';
+	}
+
+	/**
+	 * Returns true if the line holds nothing but separators.
+	 */
+	static boolean isBlank(byte[] bytes, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(!isSeparator(bytes[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
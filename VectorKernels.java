@@ -0,0 +1,231 @@
+/**
+ * Level-1 kernels on ranges of double arrays (dot products, scaled additions and the like) and
+ * the register tile of the GEMM micro-kernel. This class holds the scalar implementations.
+ * ACTIVE is chosen once, when the class is loaded: it is SimdVectorKernels, which overrides
+ * every kernel with the Java Vector API, if the jdk.incubator.vector module is present (run
+ * with --add-modules jdk.incubator.vector) and the class was compiled in, and an instance of
+ * this class otherwise. Setting -Dpca.simd=false forces the scalar kernels. Because ACTIVE is a
+ * static final field, the JIT sees a single implementation and calls it directly.
+ *
+ * Kernels that do not reduce (axpy, scale, subtract, rotate and the micro-kernel) compute every
+ * element with the same operations in both implementations, so their results are identical. The
+ * overloads on float[] serve single precision matrices: they widen each float to double,
+ * accumulate in double, and round only values that are stored back into a float[]. Reductions
+ * (dot, sum, centeredDot, axpyDot) add in a different order when vectorized, so results may
+ * differ from the scalar ones by rounding; for a given implementation they are still always the
+ * same, and axpyDot always returns exactly what dot would on the updated y.
+ */
+class VectorKernels {
+
+	static final VectorKernels ACTIVE = select();
+
+	/**
+	 * Returns the vectorized kernels if they can be used, or else the scalar ones.
+	 */
+	private static VectorKernels select() {
+		if(!Boolean.parseBoolean(System.getProperty("pca.simd", "true"))
+				|| !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			return new VectorKernels();
+		}
+		try {
+			return (VectorKernels) Class.forName("SimdVectorKernels").getDeclaredConstructor()
+					.newInstance();
+		} catch(ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+			return new VectorKernels();
+		}
+	}
+
+	/**
+	 * Returns a short description of the kernels, such as "scalar".
+	 */
+	String name() {
+		return "scalar";
+	}
+
+	/**
+	 * Returns the dot product of a[aFrom, aFrom + n) and b[bFrom, bFrom + n).
+	 */
+	double dot(double[] a, int aFrom, double[] b, int bFrom, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += a[aFrom + i] * b[bFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * y[yFrom, yFrom + n) += alpha * x[xFrom, xFrom + n)
+	 */
+	void axpy(double alpha, double[] x, int xFrom, double[] y, int yFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			y[yFrom + i] += alpha * x[xFrom + i];
+		}
+	}
+
+	/**
+	 * out[outFrom, outFrom + n) = alpha * x[xFrom, xFrom + n); out may be x.
+	 */
+	void scale(double alpha, double[] x, int xFrom, double[] out, int outFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			out[outFrom + i] = alpha * x[xFrom + i];
+		}
+	}
+
+	/**
+	 * out[outFrom, outFrom + n) = x[xFrom, xFrom + n) - c; out may be x.
+	 */
+	void subtract(double[] x, int xFrom, double c, double[] out, int outFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			out[outFrom + i] = x[xFrom + i] - c;
+		}
+	}
+
+	/**
+	 * Returns the sum of x[from, from + n).
+	 */
+	double sum(double[] x, int from, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += x[from + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the sum of (a[i] - aMean)(b[i] - bMean) over the first n entries, without
+	 * forming the centered vectors.
+	 */
+	double centeredDot(double[] a, double aMean, double[] b, double bMean, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += (a[i] - aMean) * (b[i] - bMean);
+		}
+		return sum;
+	}
+
+	/**
+	 * y[yFrom, yFrom + n) += alpha * x[xFrom, xFrom + n), then returns the dot product of the
+	 * updated y with z[zFrom, zFrom + n); one pass over y instead of two.
+	 */
+	double axpyDot(double alpha, double[] x, int xFrom, double[] y, int yFrom, double[] z,
+			int zFrom, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			double e = y[yFrom + i] + alpha * x[xFrom + i];
+			y[yFrom + i] = e;
+			sum += e * z[zFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Rotates the pairs (x[xFrom + i], y[yFrom + i]) for i < n in their plane:
+	 * x := cx - sy and y := sx + cy.
+	 */
+	void rotate(double c, double s, double[] x, int xFrom, double[] y, int yFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			double xi = x[xFrom + i];
+			double yi = y[yFrom + i];
+			x[xFrom + i] = c * xi - s * yi;
+			y[yFrom + i] = s * xi + c * yi;
+		}
+	}
+
+	/**
+	 * Returns the dot product of single precision a[aFrom, aFrom + n) with b[bFrom, bFrom + n),
+	 * accumulated in double.
+	 */
+	double dot(float[] a, int aFrom, double[] b, int bFrom, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += a[aFrom + i] * b[bFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * y[yFrom, yFrom + n) += alpha * x[xFrom, xFrom + n) for single precision y: each entry is
+	 * updated in double and rounded once.
+	 */
+	void axpy(double alpha, double[] x, int xFrom, float[] y, int yFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			y[yFrom + i] = (float) (y[yFrom + i] + alpha * x[xFrom + i]);
+		}
+	}
+
+	/**
+	 * axpy for single precision y, then returns the dot product of the updated (rounded) y with
+	 * z[zFrom, zFrom + n), accumulated in double.
+	 */
+	double axpyDot(double alpha, double[] x, int xFrom, float[] y, int yFrom, double[] z,
+			int zFrom, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			float e = (float) (y[yFrom + i] + alpha * x[xFrom + i]);
+			y[yFrom + i] = e;
+			sum += e * z[zFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the sum of single precision x[from, from + n), accumulated in double.
+	 */
+	double sum(float[] x, int from, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += x[from + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * out[outFrom, outFrom + n) = x[xFrom, xFrom + n) - c, widening single precision x.
+	 */
+	void subtract(float[] x, int xFrom, double c, double[] out, int outFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			out[outFrom + i] = x[xFrom + i] - c;
+		}
+	}
+
+	/**
+	 * out[outFrom, outFrom + n) = x[xFrom, xFrom + n) - c in single precision, each entry
+	 * computed in double and rounded once; out may be x.
+	 */
+	void subtract(float[] x, int xFrom, double c, float[] out, int outFrom, int n) {
+		for(int i = 0; i < n; i++) {
+			out[outFrom + i] = (float) (x[xFrom + i] - c);
+		}
+	}
+
+	/**
+	 * Computes one Kernels.MR x Kernels.NR tile of a product from packed micro-panels, keeping
+	 * the 16 partial sums in locals, and stores the tile column by column into tile.
+	 */
+	void microKernel(double[] a, int aPos, double[] b, int bPos, int kc, double[] tile) {
+		double c00 = 0, c10 = 0, c20 = 0, c30 = 0;
+		double c01 = 0, c11 = 0, c21 = 0, c31 = 0;
+		double c02 = 0, c12 = 0, c22 = 0, c32 = 0;
+		double c03 = 0, c13 = 0, c23 = 0, c33 = 0;
+		for(int p = 0; p < kc; p++) {
+			double a0 = a[aPos];
+			double a1 = a[aPos + 1];
+			double a2 = a[aPos + 2];
+			double a3 = a[aPos + 3];
+			double b0 = b[bPos];
+			c00 += a0 * b0; c10 += a1 * b0; c20 += a2 * b0; c30 += a3 * b0;
+			double b1 = b[bPos + 1];
+			c01 += a0 * b1; c11 += a1 * b1; c21 += a2 * b1; c31 += a3 * b1;
+			double b2 = b[bPos + 2];
+			c02 += a0 * b2; c12 += a1 * b2; c22 += a2 * b2; c32 += a3 * b2;
+			double b3 = b[bPos + 3];
+			c03 += a0 * b3; c13 += a1 * b3; c23 += a2 * b3; c33 += a3 * b3;
+			aPos += Kernels.MR;
+			bPos += Kernels.NR;
+		}
+		tile[0] = c00; tile[1] = c10; tile[2] = c20; tile[3] = c30;
+		tile[4] = c01; tile[5] = c11; tile[6] = c21; tile[7] = c31;
+		tile[8] = c02; tile[9] = c12; tile[10] = c22; tile[11] = c32;
+		tile[12] = c03; tile[13] = c13; tile[14] = c23; tile[15] = c33;
+	}
+}
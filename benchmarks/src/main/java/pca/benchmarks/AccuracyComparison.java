@@ -0,0 +1,103 @@
+package pca.benchmarks;
+
+/**
+ * Compares principal components computed from data stored in single precision with those from
+ * the same data in double precision, on synthetic tables of each kind of spectrum. For every
+ * case it prints the relative error of the covariance matrix (Frobenius norm) and, for each
+ * NIPALS component, the relative error of the eigenvalue, the angle between the two loading
+ * vectors and the relative error of the scores. A case with "+offset" adds a large constant to
+ * every entry before rounding, so the rounding error is large next to the spread of the data;
+ * centering cannot recover the bits that rounding discarded.
+ */
+public final class AccuracyComparison {
+
+	static final String[] SPECTRA = {"geometric:0.8", "powerlaw:1", "gap:5", "geometric:0.5",
+			"geometric:0.8+offset"};
+	static final double OFFSET = 1e4;
+
+	private AccuracyComparison() {
+	}
+
+	/**
+	 * @param args	optionally the shape as rows x cols (10000x100 by default) and the number of
+	 * 				components (5 by default)
+	 */
+	public static void main(String[] args) {
+		int[] dims = SyntheticData.shape(args.length > 0 ? args[0] : "10000x100");
+		int components = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		System.out.printf("%dx%d, %d components%n", dims[0], dims[1], components);
+		System.out.printf("%-22s %4s %12s %12s %12s %12s%n", "spectrum", "pc", "covariance",
+				"eigenvalue", "angle", "scores");
+		for(String spec: SPECTRA) {
+			compare(spec, dims[0], dims[1], components);
+		}
+	}
+
+	/**
+	 * Prints the comparison for one spectrum.
+	 */
+	static void compare(String spec, int rows, int cols, int components) {
+		boolean offset = spec.endsWith("+offset");
+		double[] values = SyntheticData.table(rows, cols, offset ? spec.split("\\+")[0] : spec);
+		if(offset) {
+			for(int i = 0; i < values.length; i++) {
+				values[i] += OFFSET;
+			}
+		}
+		Object wide = Core.wrap(values, rows, cols);
+		Object narrow = Core.singlePrecision(wide);
+		Object wideData = Core.newData(wide);
+		Object narrowData = Core.newData(narrow);
+		Core.center(wideData);
+		Core.center(narrowData);
+		double covariance = relativeError(Core.toColumns(Core.covariance(wideData)),
+				Core.toColumns(Core.covariance(narrowData)));
+		double[][][] a = Core.nipals(wideData, components);
+		double[][][] b = Core.nipals(narrowData, components);
+		for(int k = 0; k < components; k++) {
+			double[] t = a[k][0], u = b[k][0];
+			double[] p = a[k][1], q = b[k][1];
+			double sign = Math.signum(dot(p, q));
+			double lambda = dot(t, t)/(rows - 1);
+			double mu = dot(u, u)/(rows - 1);
+			//2 asin(|p - q|/2) keeps its precision for small angles, where acos(p.q) loses it
+			double chord = 0;
+			for(int i = 0; i < cols; i++) {
+				double d = p[i] - sign * q[i];
+				chord += d * d;
+			}
+			double angle = 2 * Math.asin(Math.min(1, Math.sqrt(chord)/2));
+			double scoreError = 0;
+			for(int j = 0; j < rows; j++) {
+				double d = t[j] - sign * u[j];
+				scoreError += d * d;
+			}
+			System.out.printf("%-22s %4d %12.2e %12.2e %12.2e %12.2e%n", k == 0 ? spec : "",
+					k + 1, covariance, Math.abs(lambda - mu)/lambda, angle,
+					Math.sqrt(scoreError/dot(t, t)));
+		}
+	}
+
+	/**
+	 * Returns the Frobenius norm of a - b relative to that of a.
+	 */
+	static double relativeError(double[][] a, double[][] b) {
+		double diff = 0, norm = 0;
+		for(int i = 0; i < a.length; i++) {
+			for(int j = 0; j < a[i].length; j++) {
+				double d = a[i][j] - b[i][j];
+				diff += d * d;
+				norm += a[i][j] * a[i][j];
+			}
+		}
+		return Math.sqrt(diff/norm);
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for(int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,124 @@
+package pca.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with -rf csv, such as the checked-in baseline and a new
+ * run, and prints the ratio of each score. Each score comes with the half-width of its 99.9%
+ * confidence interval ("Score Error (99.9%)"). A throughput (ops/s) whose interval lies wholly
+ * below the baseline's, or an allocation per operation (gc.alloc.rate.norm, B/op) whose interval
+ * lies wholly above it, is marked as a regression, and the exit status is 1 if there is any.
+ * Changes within the noise of either run, where the intervals overlap, are not. JMH reports
+ * bytes per operation with almost no error, yet they move by a few objects from run to run as
+ * the JIT compiler decides differently what escapes, so their intervals are widened to at least
+ * ALLOCATION_NOISE of the score.
+ */
+public final class CompareResults {
+
+	static final double ALLOCATION_NOISE = 0.01;
+
+	private CompareResults() {
+	}
+
+	/**
+	 * @param args	the baseline CSV file and the new CSV file
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.out.println("Arguments should be <baseline.csv> <results.csv>.");
+			System.exit(2);
+		}
+		Map<String, double[]> baseline = read(args[0]);
+		Map<String, double[]> current = read(args[1]);
+		int regressions = 0;
+		for(Map.Entry<String, double[]> entry: current.entrySet()) {
+			double[] before = baseline.get(entry.getKey());
+			if(before == null) {
+				System.out.printf("%-100s %12s%n", entry.getKey(), "new");
+				continue;
+			}
+			double[] after = entry.getValue();
+			double ratio = after[0]/before[0];
+			boolean regressed = false;
+			if(entry.getKey().endsWith("ops/s")) {
+				regressed = after[0] + after[1] < before[0] - before[1];
+			} else if(entry.getKey().endsWith("B/op")) {
+				double a = Math.max(after[1], ALLOCATION_NOISE * after[0]);
+				double b = Math.max(before[1], ALLOCATION_NOISE * before[0]);
+				regressed = after[0] - a > before[0] + b;
+			}
+			if(regressed) {
+				regressions++;
+			}
+			System.out.printf("%-100s %12.3f%s%n", entry.getKey(), ratio,
+					regressed ? "  REGRESSION" : "");
+		}
+		System.out.println(regressions + " regressions outside the 99.9% confidence intervals.");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Reads the score and score error of every row of a JMH CSV file, keyed by benchmark,
+	 * parameters and unit. The error is taken as 0 where JMH could not estimate it (NaN, as with
+	 * a single measurement). Allocation rates in MB/sec are skipped, since they follow from
+	 * throughput and B/op.
+	 * @return	{score, error} of each row
+	 */
+	static Map<String, double[]> read(String filename) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(filename));
+		List<String> header = fields(lines.get(0));
+		int score = header.indexOf("Score");
+		int error = header.indexOf("Score Error (99.9%)");
+		int unit = header.indexOf("Unit");
+		Map<String, double[]> out = new LinkedHashMap<>();
+		for(String line: lines.subList(1, lines.size())) {
+			if(line.isBlank()) {
+				continue;
+			}
+			List<String> row = fields(line);
+			if(row.get(unit).equals("MB/sec")) {
+				continue;
+			}
+			StringBuilder key = new StringBuilder(row.get(0));
+			for(int i = unit + 1; i < row.size(); i++) {
+				if(!row.get(i).isEmpty() && !row.get(i).equals("N/A")) {
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=')
+							.append(row.get(i));
+				}
+			}
+			key.append(' ').append(row.get(unit));
+			double halfWidth = Double.parseDouble(row.get(error));
+			out.put(key.toString(), new double[] {Double.parseDouble(row.get(score)),
+					Double.isNaN(halfWidth) ? 0 : halfWidth});
+		}
+		return out;
+	}
+
+	/**
+	 * Splits one CSV line into fields, removing quotes.
+	 */
+	private static List<String> fields(String line) {
+		List<String> out = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(c == '"') {
+				quoted = !quoted;
+			} else if(c == ',' && !quoted) {
+				out.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		out.add(field.toString());
+		return out;
+	}
+}
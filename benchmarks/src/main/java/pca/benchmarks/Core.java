@@ -0,0 +1,256 @@
+package pca.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Calls into the PCA classes, which live in the default package and so cannot be imported from
+ * a named package. Each entry point is looked up once as a MethodHandle with private access to
+ * its class (all classes share the unnamed module), and adapted to take and return Object so
+ * that benchmarks need not name DenseMatrix or Data. The handles are static final, so the JIT
+ * inlines them and a benchmark measures the call itself rather than reflection.
+ */
+final class Core {
+
+	private static final MethodHandle WRAP = find("DenseMatrix", "wrap", "DenseMatrix",
+			double[].class, int.class, int.class);
+	private static final MethodHandle SINGLE = findVirtual("DenseMatrix", "toSinglePrecision",
+			"DenseMatrix");
+	private static final MethodHandle TO_COLUMNS = findVirtual("DenseMatrix", "toColumns",
+			double[][].class);
+	private static final MethodHandle TRANSPOSE = find("Matrix", "transpose", "DenseMatrix",
+			"DenseMatrix");
+	private static final MethodHandle MULTIPLY = find("Matrix", "multiply", "DenseMatrix",
+			"DenseMatrix", "DenseMatrix");
+	private static final MethodHandle EIGEN = find("Matrix", "eigenDecomposition", "EigenSet",
+			"DenseMatrix");
+	private static final MethodHandle EIGEN_LEADING = find("Matrix", "eigenDecomposition",
+			"EigenSet", "DenseMatrix", int.class);
+	private static final MethodHandle PARSE = find("TextDataParser", "parse", "DenseMatrix",
+			String.class);
+	private static final MethodHandle NEW_DATA = constructor("Data", "DenseMatrix");
+	private static final MethodHandle CENTER = findVirtual("Data", "center", double[].class);
+	private static final MethodHandle COVARIANCE = findVirtual("Data", "covarianceDenseMatrix",
+			"DenseMatrix");
+	private static final MethodHandle NIPALS = findVirtual("Data", "NIPALSAlg", double[][][].class,
+			int.class);
+
+	private Core() {
+	}
+
+	/**
+	 * Wraps column-major values as a rows x cols DenseMatrix without copying them.
+	 */
+	static Object wrap(double[] values, int rows, int cols) {
+		try {
+			return (Object) WRAP.invokeExact(values, rows, cols);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * DenseMatrix.toSinglePrecision(): a copy of the matrix rounded to single precision.
+	 */
+	static Object singlePrecision(Object matrix) {
+		try {
+			return (Object) SINGLE.invokeExact(matrix);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * DenseMatrix.toColumns(): a copy of the entries as an array of columns.
+	 */
+	static double[][] toColumns(Object matrix) {
+		try {
+			return (double[][]) TO_COLUMNS.invokeExact(matrix);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Matrix.transpose(DenseMatrix): a view of the transpose.
+	 */
+	static Object transpose(Object matrix) {
+		try {
+			return (Object) TRANSPOSE.invokeExact(matrix);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Matrix.multiply(DenseMatrix, DenseMatrix).
+	 */
+	static Object multiply(Object a, Object b) {
+		try {
+			return (Object) MULTIPLY.invokeExact(a, b);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Matrix.eigenDecomposition(DenseMatrix): every eigenpair.
+	 */
+	static Object eigenDecomposition(Object matrix) {
+		try {
+			return (Object) EIGEN.invokeExact(matrix);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Matrix.eigenDecomposition(DenseMatrix, int): the leading numValues eigenpairs.
+	 */
+	static Object eigenDecomposition(Object matrix, int numValues) {
+		try {
+			return (Object) EIGEN_LEADING.invokeExact(matrix, numValues);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * TextDataParser.parse(String).
+	 */
+	static Object parse(String filename) {
+		try {
+			return (Object) PARSE.invokeExact(filename);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * new Data(DenseMatrix), which takes ownership of the matrix.
+	 */
+	static Object newData(Object matrix) {
+		try {
+			return (Object) NEW_DATA.invokeExact(matrix);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Data.center(): centers the data in place and returns the means.
+	 */
+	static double[] center(Object data) {
+		try {
+			return (double[]) CENTER.invokeExact(data);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Data.covarianceDenseMatrix().
+	 */
+	static Object covariance(Object data) {
+		try {
+			return (Object) COVARIANCE.invokeExact(data);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Data.NIPALSAlg(int) on data that has already been centered.
+	 */
+	static double[][][] nipals(Object data, int numComponents) {
+		try {
+			return (double[][][]) NIPALS.invokeExact(data, numComponents);
+		} catch(Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Looks up a static method. Parameter and return types are Classes or the names of classes
+	 * in the default package; the handle is adapted to Object for every default-package type.
+	 */
+	private static MethodHandle find(String owner, String name, Object returnType,
+			Object... parameterTypes) {
+		try {
+			Class<?> cls = Class.forName(owner);
+			MethodType type = MethodType.methodType(type(returnType), types(parameterTypes));
+			return erase(lookup(cls).findStatic(cls, name, type));
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Looks up an instance method; the handle takes the receiver as its first argument.
+	 */
+	private static MethodHandle findVirtual(String owner, String name, Object returnType,
+			Object... parameterTypes) {
+		try {
+			Class<?> cls = Class.forName(owner);
+			MethodType type = MethodType.methodType(type(returnType), types(parameterTypes));
+			return erase(lookup(cls).findVirtual(cls, name, type));
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Looks up a constructor.
+	 */
+	private static MethodHandle constructor(String owner, Object... parameterTypes) {
+		try {
+			Class<?> cls = Class.forName(owner);
+			MethodType type = MethodType.methodType(void.class, types(parameterTypes));
+			return erase(lookup(cls).findConstructor(cls, type));
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandles.Lookup lookup(Class<?> cls) throws IllegalAccessException {
+		return MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+	}
+
+	/**
+	 * Replaces every default-package type in the handle's type with Object.
+	 */
+	private static MethodHandle erase(MethodHandle handle) {
+		MethodType type = handle.type();
+		for(int i = 0; i < type.parameterCount(); i++) {
+			type = type.changeParameterType(i, erase(type.parameterType(i)));
+		}
+		return handle.asType(type.changeReturnType(erase(type.returnType())));
+	}
+
+	private static Class<?> erase(Class<?> cls) {
+		return cls.getPackageName().isEmpty() ? Object.class : cls;
+	}
+
+	private static Class<?> type(Object type) throws ClassNotFoundException {
+		return type instanceof Class ? (Class<?>) type : Class.forName((String) type);
+	}
+
+	private static Class<?>[] types(Object[] types) throws ClassNotFoundException {
+		Class<?>[] out = new Class<?>[types.length];
+		for(int i = 0; i < types.length; i++) {
+			out[i] = type(types[i]);
+		}
+		return out;
+	}
+
+	private static RuntimeException rethrow(Throwable e) {
+		if(e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if(e instanceof Error) {
+			throw (Error) e;
+		}
+		return new RuntimeException(e);
+	}
+}
@@ -0,0 +1,38 @@
+package pca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Data.covarianceDenseMatrix on centered data tables. The widest table has 2000 variables
+ * rather than 10000, because the covariance matrix of 10000 variables alone takes 800 MB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class CovarianceBenchmark {
+
+	@Param({"100x100", "1000x1000", "10000x100", "100x2000"})
+	public String shape;
+
+	@Param({"geometric:0.9"})
+	public String spectrum;
+
+	private Object data;
+
+	@Setup
+	public void setup() {
+		int[] dims = SyntheticData.shape(shape);
+		data = Core.newData(Core.wrap(SyntheticData.table(dims[0], dims[1], spectrum), dims[0],
+				dims[1]));
+		Core.center(data);
+	}
+
+	@Benchmark
+	public Object covariance() {
+		return Core.covariance(data);
+	}
+}
@@ -0,0 +1,42 @@
+package pca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Matrix.eigenDecomposition on symmetric matrices with a known spectrum: the full
+ * decomposition, and the leading LEADING eigenpairs that PCA usually asks for.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class EigenBenchmark {
+
+	static final int LEADING = 10;
+
+	@Param({"100", "1000"})
+	public int size;
+
+	@Param({"geometric:0.9", "gap:10"})
+	public String spectrum;
+
+	private Object matrix;
+
+	@Setup
+	public void setup() {
+		matrix = Core.wrap(SyntheticData.covariance(size, spectrum), size, size);
+	}
+
+	@Benchmark
+	public Object full() {
+		return Core.eigenDecomposition(matrix);
+	}
+
+	@Benchmark
+	public Object leading() {
+		return Core.eigenDecomposition(matrix, LEADING);
+	}
+}
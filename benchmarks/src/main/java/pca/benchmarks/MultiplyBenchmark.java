@@ -0,0 +1,52 @@
+package pca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Matrix.multiply on the two products PCA makes most often: the Gram matrix of a data table
+ * over its smaller side ((X^T)X for tall tables, X(X^T) for wide ones), and the projection of a
+ * table onto COMPONENTS directions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class MultiplyBenchmark {
+
+	static final int COMPONENTS = 10;
+
+	@Param({"100x100", "1000x1000", "10000x100", "100x10000"})
+	public String shape;
+
+	@Param({"geometric:0.9"})
+	public String spectrum;
+
+	private Object left;
+	private Object right;
+	private Object table;
+	private Object directions;
+
+	@Setup
+	public void setup() {
+		int[] dims = SyntheticData.shape(shape);
+		table = Core.wrap(SyntheticData.table(dims[0], dims[1], spectrum), dims[0], dims[1]);
+		boolean tall = dims[0] >= dims[1];
+		left = tall ? Core.transpose(table) : table;
+		right = tall ? table : Core.transpose(table);
+		directions = Core.wrap(SyntheticData.table(dims[1], COMPONENTS, "flat:0"), dims[1],
+				COMPONENTS);
+	}
+
+	@Benchmark
+	public Object gram() {
+		return Core.multiply(left, right);
+	}
+
+	@Benchmark
+	public Object project() {
+		return Core.multiply(table, directions);
+	}
+}
@@ -0,0 +1,42 @@
+package pca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Data.NIPALSAlg on centered data tables. The number of iterations NIPALS needs depends on the
+ * gaps between eigenvalues, so each shape is run with a spectrum whose gaps are all moderate and
+ * with one whose leading components stand far above the rest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class NipalsBenchmark {
+
+	@Param({"100x100", "1000x1000", "10000x100", "100x10000"})
+	public String shape;
+
+	@Param({"geometric:0.8", "gap:5"})
+	public String spectrum;
+
+	@Param({"5"})
+	public int components;
+
+	private Object data;
+
+	@Setup
+	public void setup() {
+		int[] dims = SyntheticData.shape(shape);
+		data = Core.newData(Core.wrap(SyntheticData.table(dims[0], dims[1], spectrum), dims[0],
+				dims[1]));
+		Core.center(data);
+	}
+
+	@Benchmark
+	public double[][][] nipals() {
+		return Core.nipals(data, components);
+	}
+}
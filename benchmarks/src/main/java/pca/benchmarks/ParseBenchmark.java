@@ -0,0 +1,46 @@
+package pca.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * TextDataParser.parse on comma-separated text files of each shape, written to a temporary file
+ * before the trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	@Param({"10000x100", "1000x1000", "100x10000"})
+	public String shape;
+
+	@Param({"geometric:0.9"})
+	public String spectrum;
+
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		int[] dims = SyntheticData.shape(shape);
+		file = Files.createTempFile("pca-parse-", ".txt");
+		SyntheticData.writeText(file, dims[0], dims[1],
+				SyntheticData.table(dims[0], dims[1], spectrum));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return Core.parse(file.toString());
+	}
+}
@@ -0,0 +1,54 @@
+package pca.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Data.NIPALSAlg and Data.covarianceDenseMatrix on the same data stored in double and in single
+ * precision. The tables are 80 MB in double precision, far larger than the caches, so each pass
+ * over the data is bound by memory bandwidth and halving the bytes per entry shows in the time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx3g"})
+@State(Scope.Benchmark)
+public class PrecisionBenchmark {
+
+	@Param({"200000x50", "10000x1000"})
+	public String shape;
+
+	@Param({"double", "float"})
+	public String precision;
+
+	@Param({"geometric:0.8"})
+	public String spectrum;
+
+	@Param({"5"})
+	public int components;
+
+	private Object data;
+
+	@Setup
+	public void setup() {
+		int[] dims = SyntheticData.shape(shape);
+		Object matrix = Core.wrap(SyntheticData.table(dims[0], dims[1], spectrum), dims[0],
+				dims[1]);
+		if(precision.equals("float")) {
+			matrix = Core.singlePrecision(matrix);
+		}
+		data = Core.newData(matrix);
+		Core.center(data);
+	}
+
+	@Benchmark
+	public double[][][] nipals() {
+		return Core.nipals(data, components);
+	}
+
+	@Benchmark
+	public Object covariance() {
+		return Core.covariance(data);
+	}
+}
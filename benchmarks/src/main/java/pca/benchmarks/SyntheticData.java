@@ -0,0 +1,169 @@
+package pca.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates data with a chosen covariance spectrum, so that benchmarks of iterative methods
+ * run on problems of known difficulty. A data table is Z diag(sqrt(lambda)) Q, where Z has
+ * independent standard normal entries and Q is a random orthogonal matrix (a product of
+ * Householder reflections), so its covariance matrix has eigenvalues close to lambda and
+ * eigenvectors that are not aligned with the axes. Everything is seeded, so every run of a
+ * benchmark sees the same data.
+ *
+ * A spectrum is given as "kind:parameter":
+ * "geometric:r" has eigenvalues r^i, so the gap between neighbours is fixed;
+ * "powerlaw:a" has eigenvalues 1/(i+1)^a, whose gaps shrink down the spectrum;
+ * "gap:k" has k eigenvalues of 100 and the rest 1, so k components stand out from noise;
+ * "flat:0" has every eigenvalue 1, the hardest case for power methods.
+ */
+final class SyntheticData {
+
+	static final long SEED = 42;
+	static final int REFLECTIONS = 3; //Householder reflections in the random rotation Q
+
+	private SyntheticData() {
+	}
+
+	/**
+	 * Returns the size eigenvalues described by spec, largest first.
+	 */
+	static double[] spectrum(String spec, int size) {
+		String[] parts = spec.split(":");
+		if(parts.length != 2) {
+			throw new IllegalArgumentException("Spectrum must be kind:parameter, not " + spec);
+		}
+		double parameter = Double.parseDouble(parts[1]);
+		double[] out = new double[size];
+		for(int i = 0; i < size; i++) {
+			switch(parts[0]) {
+				case "geometric":
+					out[i] = Math.pow(parameter, i);
+					break;
+				case "powerlaw":
+					out[i] = Math.pow(i + 1, -parameter);
+					break;
+				case "gap":
+					out[i] = i < parameter ? 100 : 1;
+					break;
+				case "flat":
+					out[i] = 1;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown spectrum " + parts[0]);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns a rows x cols data table with covariance spectrum spec, as column-major values.
+	 */
+	static double[] table(int rows, int cols, String spec) {
+		Random random = new Random(SEED);
+		double[] lambda = spectrum(spec, cols);
+		double[] x = new double[rows * cols];
+		for(int i = 0; i < cols; i++) {
+			double scale = Math.sqrt(lambda[i]);
+			for(int j = 0; j < rows; j++) {
+				x[i * rows + j] = random.nextGaussian() * scale;
+			}
+		}
+		double[] w = new double[rows];
+		for(int h = 0; h < REFLECTIONS; h++) {
+			double[] v = unitVector(random, cols);
+			//X := X(I - 2v(v^T)), computed as w = Xv followed by X -= 2w(v^T)
+			java.util.Arrays.fill(w, 0);
+			for(int i = 0; i < cols; i++) {
+				for(int j = 0; j < rows; j++) {
+					w[j] += x[i * rows + j] * v[i];
+				}
+			}
+			for(int i = 0; i < cols; i++) {
+				double c = 2 * v[i];
+				for(int j = 0; j < rows; j++) {
+					x[i * rows + j] -= c * w[j];
+				}
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Returns the size x size symmetric matrix (Q^T)diag(lambda)Q with the eigenvalues of spec,
+	 * as column-major values.
+	 */
+	static double[] covariance(int size, String spec) {
+		Random random = new Random(SEED);
+		double[] lambda = spectrum(spec, size);
+		double[] c = new double[size * size];
+		for(int i = 0; i < size; i++) {
+			c[i * size + i] = lambda[i];
+		}
+		double[] w = new double[size];
+		for(int h = 0; h < REFLECTIONS; h++) {
+			double[] v = unitVector(random, size);
+			//C := HCH with H = I - 2v(v^T): with w = Cv and s = (v^T)w,
+			//HCH = C - 2w(v^T) - 2v(w^T) + 4s v(v^T)
+			double s = 0;
+			for(int i = 0; i < size; i++) {
+				double sum = 0;
+				for(int j = 0; j < size; j++) {
+					sum += c[j * size + i] * v[j];
+				}
+				w[i] = sum;
+				s += v[i] * sum;
+			}
+			for(int j = 0; j < size; j++) {
+				for(int i = 0; i < size; i++) {
+					c[j * size + i] += -2 * w[i] * v[j] - 2 * v[i] * w[j] + 4 * s * v[i] * v[j];
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Writes a data table in the text format read by PCA, with comma-separated values.
+	 */
+	static void writeText(Path file, int rows, int cols, double[] x) throws IOException {
+		try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+			out.write(rows + " " + cols + "\n");
+			for(int j = 0; j < rows; j++) {
+				for(int i = 0; i < cols; i++) {
+					if(i > 0) {
+						out.write(',');
+					}
+					out.write(Double.toString(x[i * rows + j]));
+				}
+				out.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Returns "rows x cols" as {rows, cols}.
+	 */
+	static int[] shape(String shape) {
+		String[] parts = shape.split("x");
+		return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+
+	private static double[] unitVector(Random random, int size) {
+		double[] v = new double[size];
+		double norm = 0;
+		for(int i = 0; i < size; i++) {
+			v[i] = random.nextGaussian();
+			norm += v[i] * v[i];
+		}
+		norm = Math.sqrt(norm);
+		for(int i = 0; i < size; i++) {
+			v[i] /= norm;
+		}
+		return v;
+	}
+}
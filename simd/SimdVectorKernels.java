@@ -0,0 +1,334 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels on the Java Vector API, which still incubates in Java 17: this file must be
+ * compiled with --add-modules jdk.incubator.vector, and VectorKernels only loads it when the
+ * module is present at run time. Every kernel uses 256-bit vectors of four doubles: the 4 x 4
+ * micro-kernel needs exactly that width, and mixing vector sizes in one program makes the
+ * shared Vector API code polymorphic, which stops the JIT from compiling it into vector
+ * instructions. Reductions keep two accumulators so that consecutive multiply-adds do not wait
+ * on each other, and use fused multiply-adds; kernels that do not reduce multiply and add
+ * separately, exactly as the scalar code does, so their results are the same.
+ *
+ * Tails shorter than a vector are finished with scalar code rather than with masked loads,
+ * which Java 17 does not compile into masked instructions and which cost more than a whole
+ * short dot product. Single precision arrays are read four floats at a time and widened to one
+ * vector of doubles, so the float kernels compute exactly what the double kernels compute on
+ * the widened values. The constructor refuses hardware without 256-bit vectors, so that
+ * VectorKernels falls back to the scalar kernels there.
+ */
+final class SimdVectorKernels extends VectorKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_128; //Widen to SPECIES
+	private static final int LANES = SPECIES.length();
+
+	SimdVectorKernels() {
+		if(DoubleVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()
+				|| Kernels.MR != LANES) {
+			throw new UnsupportedOperationException("No 256-bit vector registers.");
+		}
+	}
+
+	@Override
+	String name() {
+		return "Vector API, " + SPECIES.vectorBitSize() + "-bit";
+	}
+
+	@Override
+	double dot(double[] a, int aFrom, double[] b, int bFrom, int n) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = DoubleVector.fromArray(SPECIES, a, aFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), acc0);
+			acc1 = DoubleVector.fromArray(SPECIES, a, aFrom + i + LANES)
+					.fma(DoubleVector.fromArray(SPECIES, b, bFrom + i + LANES), acc1);
+		}
+		if(i + LANES <= n) {
+			acc0 = DoubleVector.fromArray(SPECIES, a, aFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), acc0);
+			i += LANES;
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[aFrom + i] * b[bFrom + i];
+		}
+		return sum;
+	}
+
+	@Override
+	void axpy(double alpha, double[] x, int xFrom, double[] y, int yFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(alpha)
+					.add(DoubleVector.fromArray(SPECIES, y, yFrom + i))
+					.intoArray(y, yFrom + i);
+		}
+		for(; i < n; i++) {
+			y[yFrom + i] += alpha * x[xFrom + i];
+		}
+	}
+
+	@Override
+	void scale(double alpha, double[] x, int xFrom, double[] out, int outFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(alpha).intoArray(out, outFrom + i);
+		}
+		for(; i < n; i++) {
+			out[outFrom + i] = alpha * x[xFrom + i];
+		}
+	}
+
+	@Override
+	void subtract(double[] x, int xFrom, double c, double[] out, int outFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			DoubleVector.fromArray(SPECIES, x, xFrom + i).sub(c).intoArray(out, outFrom + i);
+		}
+		for(; i < n; i++) {
+			out[outFrom + i] = x[xFrom + i] - c;
+		}
+	}
+
+	@Override
+	void rotate(double c, double s, double[] x, int xFrom, double[] y, int yFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			DoubleVector xv = DoubleVector.fromArray(SPECIES, x, xFrom + i);
+			DoubleVector yv = DoubleVector.fromArray(SPECIES, y, yFrom + i);
+			xv.mul(c).sub(yv.mul(s)).intoArray(x, xFrom + i);
+			xv.mul(s).add(yv.mul(c)).intoArray(y, yFrom + i);
+		}
+		for(; i < n; i++) {
+			double xi = x[xFrom + i];
+			double yi = y[yFrom + i];
+			x[xFrom + i] = c * xi - s * yi;
+			y[yFrom + i] = s * xi + c * yi;
+		}
+	}
+
+	@Override
+	double sum(double[] x, int from, int n) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = acc0.add(DoubleVector.fromArray(SPECIES, x, from + i));
+			acc1 = acc1.add(DoubleVector.fromArray(SPECIES, x, from + i + LANES));
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += x[from + i];
+		}
+		return sum;
+	}
+
+	@Override
+	double centeredDot(double[] a, double aMean, double[] b, double bMean, int n) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = DoubleVector.fromArray(SPECIES, a, i).sub(aMean)
+					.fma(DoubleVector.fromArray(SPECIES, b, i).sub(bMean), acc0);
+			acc1 = DoubleVector.fromArray(SPECIES, a, i + LANES).sub(aMean)
+					.fma(DoubleVector.fromArray(SPECIES, b, i + LANES).sub(bMean), acc1);
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += (a[i] - aMean) * (b[i] - bMean);
+		}
+		return sum;
+	}
+
+	@Override
+	double axpyDot(double alpha, double[] x, int xFrom, double[] y, int yFrom, double[] z,
+			int zFrom, int n) {
+		//Sums in the same order as dot, so the result equals dot of the updated y with z
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = axpyLanes(alpha, x, xFrom + i, y, yFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i), acc0);
+			acc1 = axpyLanes(alpha, x, xFrom + i + LANES, y, yFrom + i + LANES)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i + LANES), acc1);
+		}
+		if(i + LANES <= n) {
+			acc0 = axpyLanes(alpha, x, xFrom + i, y, yFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i), acc0);
+			i += LANES;
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			double e = y[yFrom + i] + alpha * x[xFrom + i];
+			y[yFrom + i] = e;
+			sum += e * z[zFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Updates one vector of y by alpha times x and returns the updated lanes.
+	 */
+	private static DoubleVector axpyLanes(double alpha, double[] x, int xFrom, double[] y,
+			int yFrom) {
+		DoubleVector e = DoubleVector.fromArray(SPECIES, x, xFrom).mul(alpha)
+				.add(DoubleVector.fromArray(SPECIES, y, yFrom));
+		e.intoArray(y, yFrom);
+		return e;
+	}
+
+	@Override
+	double dot(float[] a, int aFrom, double[] b, int bFrom, int n) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = widen(a, aFrom + i).fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), acc0);
+			acc1 = widen(a, aFrom + i + LANES)
+					.fma(DoubleVector.fromArray(SPECIES, b, bFrom + i + LANES), acc1);
+		}
+		if(i + LANES <= n) {
+			acc0 = widen(a, aFrom + i).fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), acc0);
+			i += LANES;
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[aFrom + i] * b[bFrom + i];
+		}
+		return sum;
+	}
+
+	@Override
+	void axpy(double alpha, double[] x, int xFrom, float[] y, int yFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			narrow(widen(y, yFrom + i).add(DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(alpha)),
+					y, yFrom + i);
+		}
+		for(; i < n; i++) {
+			y[yFrom + i] = (float) (y[yFrom + i] + alpha * x[xFrom + i]);
+		}
+	}
+
+	@Override
+	double axpyDot(double alpha, double[] x, int xFrom, float[] y, int yFrom, double[] z,
+			int zFrom, int n) {
+		//Sums in the same order as dot, so the result equals dot of the updated y with z
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = axpyLanes(alpha, x, xFrom + i, y, yFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i), acc0);
+			acc1 = axpyLanes(alpha, x, xFrom + i + LANES, y, yFrom + i + LANES)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i + LANES), acc1);
+		}
+		if(i + LANES <= n) {
+			acc0 = axpyLanes(alpha, x, xFrom + i, y, yFrom + i)
+					.fma(DoubleVector.fromArray(SPECIES, z, zFrom + i), acc0);
+			i += LANES;
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			float e = (float) (y[yFrom + i] + alpha * x[xFrom + i]);
+			y[yFrom + i] = e;
+			sum += e * z[zFrom + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Updates one vector of single precision y by alpha times x and returns the updated lanes,
+	 * as rounded to float and widened again.
+	 */
+	private static DoubleVector axpyLanes(double alpha, double[] x, int xFrom, float[] y,
+			int yFrom) {
+		FloatVector e = (FloatVector) widen(y, yFrom)
+				.add(DoubleVector.fromArray(SPECIES, x, xFrom).mul(alpha))
+				.convertShape(VectorOperators.D2F, FLOATS, 0);
+		e.intoArray(y, yFrom);
+		return (DoubleVector) e.convertShape(VectorOperators.F2D, SPECIES, 0);
+	}
+
+	@Override
+	double sum(float[] x, int from, int n) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES);
+		DoubleVector acc1 = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for(; i + 2 * LANES <= n; i += 2 * LANES) {
+			acc0 = acc0.add(widen(x, from + i));
+			acc1 = acc1.add(widen(x, from + i + LANES));
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += x[from + i];
+		}
+		return sum;
+	}
+
+	@Override
+	void subtract(float[] x, int xFrom, double c, double[] out, int outFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			widen(x, xFrom + i).sub(c).intoArray(out, outFrom + i);
+		}
+		for(; i < n; i++) {
+			out[outFrom + i] = x[xFrom + i] - c;
+		}
+	}
+
+	@Override
+	void subtract(float[] x, int xFrom, double c, float[] out, int outFrom, int n) {
+		int i = 0;
+		for(int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			narrow(widen(x, xFrom + i).sub(c), out, outFrom + i);
+		}
+		for(; i < n; i++) {
+			out[outFrom + i] = (float) (x[xFrom + i] - c);
+		}
+	}
+
+	/**
+	 * Loads LANES floats from a starting at from as a vector of doubles.
+	 */
+	private static DoubleVector widen(float[] a, int from) {
+		return (DoubleVector) FloatVector.fromArray(FLOATS, a, from)
+				.convertShape(VectorOperators.F2D, SPECIES, 0);
+	}
+
+	/**
+	 * Rounds v to floats and stores them into out starting at from.
+	 */
+	private static void narrow(DoubleVector v, float[] out, int from) {
+		((FloatVector) v.convertShape(VectorOperators.D2F, FLOATS, 0)).intoArray(out, from);
+	}
+
+	@Override
+	void microKernel(double[] a, int aPos, double[] b, int bPos, int kc, double[] tile) {
+		DoubleVector c0 = DoubleVector.zero(SPECIES);
+		DoubleVector c1 = DoubleVector.zero(SPECIES);
+		DoubleVector c2 = DoubleVector.zero(SPECIES);
+		DoubleVector c3 = DoubleVector.zero(SPECIES);
+		for(int p = 0; p < kc; p++) {
+			DoubleVector column = DoubleVector.fromArray(SPECIES, a, aPos);
+			c0 = c0.add(column.mul(b[bPos]));
+			c1 = c1.add(column.mul(b[bPos + 1]));
+			c2 = c2.add(column.mul(b[bPos + 2]));
+			c3 = c3.add(column.mul(b[bPos + 3]));
+			aPos += Kernels.MR;
+			bPos += Kernels.NR;
+		}
+		c0.intoArray(tile, 0);
+		c1.intoArray(tile, Kernels.MR);
+		c2.intoArray(tile, 2 * Kernels.MR);
+		c3.intoArray(tile, 3 * Kernels.MR);
+	}
+}